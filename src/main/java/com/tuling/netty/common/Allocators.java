@@ -0,0 +1,243 @@
+package com.tuling.netty.common;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓冲区分配器
+ * 所有服务共用一个按系统属性配置的分配器,默认为优先直接内存的池化分配器,
+ * IO 线程与 DefaultThreadFactory 创建的线程使用线程本地缓存,堆外内存按 arena 预先划分、可预期。
+ * 同时统计泄漏检测报告的次数,泄漏检测级别沿用 Netty 的 io.netty.leakDetection.level。
+ * 泄漏统计需在首次创建 ByteBuf 之前加载本类,Transport 创建时会加载。配置:
+ * <pre>
+ * netty.allocator                 pooled|unpooled,默认 pooled
+ * netty.allocator.direct          是否优先直接内存,默认 true
+ * netty.allocator.heapArenas      堆内存 arena 数,默认与 Netty 相同
+ * netty.allocator.directArenas    直接内存 arena 数,默认与 Netty 相同(CPU 核数 * 2,受最大直接内存限制)
+ * netty.allocator.pageSize        页大小,默认 8192
+ * netty.allocator.maxOrder        chunk 大小为 pageSize 左移 maxOrder 位,默认 11 即 16M
+ * netty.allocator.tinyCache       线程本地缓存 tiny 规格的条目数
+ * netty.allocator.smallCache      线程本地缓存 small 规格的条目数
+ * netty.allocator.normalCache     线程本地缓存 normal 规格的条目数
+ * netty.allocator.cacheAllThreads 是否所有线程都使用线程本地缓存,默认只有 FastThreadLocalThread 使用
+ * netty.allocator.report          定期输出统计的间隔秒数,0 时不输出,addStatsSource 注册的统计一并输出
+ * </pre>
+ */
+public final class Allocators {
+    static final Logger logger = LoggerFactory.getLogger(Allocators.class);
+
+    // 泄漏检测报告的次数
+    private static final AtomicLong leaks = new AtomicLong();
+    private static final AtomicBoolean reporting = new AtomicBoolean();
+    // 定期统计中附加输出的其他统计
+    private static final List<StatsSource> statsSources = new CopyOnWriteArrayList<>();
+    private static final ByteBufAllocator ALLOCATOR;
+
+    static {
+        ResourceLeakDetectorFactory.setResourceLeakDetectorFactory(new CountingLeakDetectorFactory());
+        ALLOCATOR = create();
+    }
+
+    private Allocators() {
+    }
+
+    private static ByteBufAllocator create() {
+        boolean preferDirect = Boolean.parseBoolean(System.getProperty("netty.allocator.direct", "true"));
+        if ("unpooled".equals(System.getProperty("netty.allocator"))) {
+            logger.info("缓冲区分配器:unpooled,优先直接内存:{}", preferDirect);
+            return new UnpooledByteBufAllocator(preferDirect);
+        }
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(preferDirect,
+                Integer.getInteger("netty.allocator.heapArenas", PooledByteBufAllocator.defaultNumHeapArena()),
+                Integer.getInteger("netty.allocator.directArenas", PooledByteBufAllocator.defaultNumDirectArena()),
+                Integer.getInteger("netty.allocator.pageSize", PooledByteBufAllocator.defaultPageSize()),
+                Integer.getInteger("netty.allocator.maxOrder", PooledByteBufAllocator.defaultMaxOrder()),
+                Integer.getInteger("netty.allocator.tinyCache", PooledByteBufAllocator.defaultTinyCacheSize()),
+                Integer.getInteger("netty.allocator.smallCache", PooledByteBufAllocator.defaultSmallCacheSize()),
+                Integer.getInteger("netty.allocator.normalCache", PooledByteBufAllocator.defaultNormalCacheSize()),
+                Boolean.parseBoolean(System.getProperty("netty.allocator.cacheAllThreads",
+                        String.valueOf(PooledByteBufAllocator.defaultUseCacheForAllThreads()))));
+        PooledByteBufAllocatorMetric metric = allocator.metric();
+        logger.info("缓冲区分配器:pooled,优先直接内存:{},堆 arena:{},直接内存 arena:{},chunk:{}",
+                preferDirect, metric.numHeapArenas(), metric.numDirectArenas(), metric.chunkSize());
+        return allocator;
+    }
+
+    /**
+     * 共用的分配器
+     */
+    public static ByteBufAllocator allocator() {
+        return ALLOCATOR;
+    }
+
+    public static boolean isPooled() {
+        return ALLOCATOR instanceof PooledByteBufAllocator;
+    }
+
+    public static long usedDirectMemory() {
+        return metric().usedDirectMemory();
+    }
+
+    public static long usedHeapMemory() {
+        return metric().usedHeapMemory();
+    }
+
+    /**
+     * 各 arena 中未释放的分配数,线程本地缓存中的缓冲区不计入;非池化分配器时为 -1
+     */
+    public static long activeBuffers() {
+        if (!isPooled()) {
+            return -1;
+        }
+        PooledByteBufAllocator pooled = (PooledByteBufAllocator) ALLOCATOR;
+        return activeAllocations(pooled.metric().directArenas()) + activeAllocations(pooled.metric().heapArenas());
+    }
+
+    /**
+     * 各直接内存 arena 中已分配的字节数;非池化分配器时为空数组
+     */
+    public static long[] directArenaUsage() {
+        if (!isPooled()) {
+            return new long[0];
+        }
+        List<PoolArenaMetric> arenas = ((PooledByteBufAllocator) ALLOCATOR).metric().directArenas();
+        long[] usage = new long[arenas.size()];
+        for (int i = 0; i < usage.length; i++) {
+            usage[i] = arenas.get(i).numActiveBytes();
+        }
+        return usage;
+    }
+
+    // 泄漏检测报告的次数
+    public static long leakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * 统计摘要,用于日志输出
+     */
+    public static String stats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("分配器:").append(isPooled() ? "pooled" : "unpooled")
+                .append(" 直接内存:").append(usedDirectMemory())
+                .append(" 堆内存:").append(usedHeapMemory())
+                .append(" 活跃缓冲区:").append(activeBuffers())
+                .append(" 泄漏:").append(leakCount());
+        if (isPooled()) {
+            PooledByteBufAllocator pooled = (PooledByteBufAllocator) ALLOCATOR;
+            sb.append(" 线程缓存:").append(pooled.metric().numThreadLocalCaches())
+                    .append(" arena 占用:");
+            long[] usage = directArenaUsage();
+            for (int i = 0; i < usage.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(usage[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 按 netty.allocator.report 的间隔定期在日志中输出统计,只生效一次
+     */
+    public static void scheduleReport(EventExecutorGroup group) {
+        int seconds = Integer.getInteger("netty.allocator.report", 0);
+        if (seconds <= 0 || !reporting.compareAndSet(false, true)) {
+            return;
+        }
+        group.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logger.info(stats());
+                for (StatsSource source : statsSources) {
+                    // 异常会取消定期任务
+                    try {
+                        String stats = source.stats();
+                        if (stats != null && !stats.isEmpty()) {
+                            logger.info(stats);
+                        }
+                    } catch (Throwable e) {
+                        logger.error("统计输出失败", e);
+                    }
+                }
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 注册在定期统计中一并输出的统计
+     */
+    public static void addStatsSource(StatsSource source) {
+        statsSources.add(source);
+    }
+
+    public static void removeStatsSource(StatsSource source) {
+        statsSources.remove(source);
+    }
+
+    /**
+     * 定期统计中附加输出的统计,返回空时不输出
+     */
+    public interface StatsSource {
+        String stats();
+    }
+
+    private static ByteBufAllocatorMetric metric() {
+        return ((ByteBufAllocatorMetricProvider) ALLOCATOR).metric();
+    }
+
+    private static long activeAllocations(List<PoolArenaMetric> arenas) {
+        long active = 0;
+        for (PoolArenaMetric arena : arenas) {
+            active += arena.numActiveAllocations();
+        }
+        return active;
+    }
+
+    // 在 Netty 输出泄漏报告的同时计数
+    static class CountingLeakDetectorFactory extends ResourceLeakDetectorFactory {
+        @Override
+        public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval) {
+            return new ResourceLeakDetector<T>(resource, samplingInterval) {
+                @Override
+                protected void reportTracedLeak(String resourceType, String records) {
+                    leaks.incrementAndGet();
+                    super.reportTracedLeak(resourceType, records);
+                }
+
+                @Override
+                protected void reportUntracedLeak(String resourceType) {
+                    leaks.incrementAndGet();
+                    super.reportUntracedLeak(resourceType);
+                }
+            };
+        }
+
+        /**
+         * @deprecated maxActive 已被 Netty 忽略,使用 {@link #newResourceLeakDetector(Class, int)}
+         */
+        @Override
+        @Deprecated
+        public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource, int samplingInterval,
+                                                                  long maxActive) {
+            return newResourceLeakDetector(resource, samplingInterval);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.tuling.netty.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.IllegalReferenceCountException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 静态资源缓存
+ * 页面从 classpath 加载一次,原文与 gzip 压缩后的内容保存在池化的直接内存中,
+ * 每次请求只发送共享内容的引用,不打开文件;按内容摘要生成 ETag,If-None-Match 命中时返回 304。
+ * 资源是磁盘上的文件时(如 IDE 中运行),按间隔检查修改时间,文件变化后重新加载
+ */
+public final class StaticAssetCache {
+    static final Logger logger = LoggerFactory.getLogger(StaticAssetCache.class);
+
+    /**
+     * 共用的缓存,检查文件修改的间隔来自 static.reload 毫秒,默认 1000,小于等于 0 时不重新加载
+     */
+    public static final StaticAssetCache DEFAULT = new StaticAssetCache(Long.getLong("static.reload", 1000));
+
+    private final long reloadInterval;
+    private final ConcurrentMap<String, Asset> assets = new ConcurrentHashMap<>();
+
+    public StaticAssetCache(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * 获取资源,未加载过时从 classpath 加载,文件已修改时重新加载
+     *
+     * @return 资源不存在时为空
+     */
+    public Asset get(String name) throws IOException {
+        Asset asset = assets.get(name);
+        if (asset != null && !asset.isModified(reloadInterval)) {
+            return asset;
+        }
+        URL url = StaticAssetCache.class.getClassLoader().getResource(name);
+        if (url == null) {
+            return null;
+        }
+        Asset loaded = Asset.load(name, url);
+        if (asset == null) {
+            asset = assets.putIfAbsent(name, loaded);
+            if (asset != null) {
+                loaded.release();
+                return asset;
+            }
+        } else if (assets.replace(name, asset, loaded)) {
+            logger.info("重新加载静态资源:{}", name);
+            asset.release();
+        } else {
+            loaded.release();
+            return assets.get(name);
+        }
+        return loaded;
+    }
+
+    /**
+     * 响应资源请求:ETag 匹配时返回 304,客户端接受 gzip 时发送压缩后的内容
+     */
+    public void send(ChannelHandlerContext ctx, FullHttpRequest request, String name) throws IOException {
+        FullHttpResponse response = null;
+        // 并发重新加载时取到的旧资源可能已释放,重新获取
+        for (int i = 0; i < 3 && response == null; i++) {
+            Asset asset = get(name);
+            if (asset == null) {
+                response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.NOT_FOUND);
+            } else {
+                response = asset.response(request);
+            }
+        }
+        if (response == null) {
+            response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+        if (!HttpUtil.isContentLengthSet(response)) {
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+        }
+        boolean keepAlive = HttpUtil.isKeepAlive(request);
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        }
+        ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 释放所有缓存的资源
+     */
+    public void clear() {
+        for (String name : assets.keySet()) {
+            Asset asset = assets.remove(name);
+            if (asset != null) {
+                asset.release();
+            }
+        }
+    }
+
+    /**
+     * 缓存的资源
+     */
+    public static final class Asset {
+        private final String contentType;
+        private final String etag;
+        private final ByteBuf identity;
+        // gzip 后不比原文小时为空
+        private final ByteBuf gzip;
+        // 磁盘上的文件,不在磁盘上时为空
+        private final File file;
+        private final long lastModified;
+        private volatile long checkedAt;
+
+        private Asset(String contentType, String etag, ByteBuf identity, ByteBuf gzip, File file, long lastModified) {
+            this.contentType = contentType;
+            this.etag = etag;
+            this.identity = identity;
+            this.gzip = gzip;
+            this.file = file;
+            this.lastModified = lastModified;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        static Asset load(String name, URL url) throws IOException {
+            File file = null;
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    file = new File(url.toURI());
+                } catch (URISyntaxException e) {
+                    throw new IOException("无效的资源路径:" + url, e);
+                }
+            }
+            long lastModified = file == null ? 0 : file.lastModified();
+            byte[] content = read(url);
+            byte[] compressed = gzip(content);
+            ByteBuf identity = direct(content);
+            ByteBuf gzip = compressed.length < content.length ? direct(compressed) : null;
+            return new Asset(contentType(name), etag(content), identity, gzip, file, lastModified);
+        }
+
+        // 超过检查间隔后比较文件修改时间
+        boolean isModified(long interval) {
+            if (file == null || interval <= 0) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (now - checkedAt < interval) {
+                return false;
+            }
+            checkedAt = now;
+            return file.lastModified() != lastModified;
+        }
+
+        /**
+         * @return 资源已被重新加载释放时为空
+         */
+        FullHttpResponse response(FullHttpRequest request) {
+            String ifNoneMatch = request.headers().get(HttpHeaderNames.IF_NONE_MATCH);
+            if (ifNoneMatch != null && matches(ifNoneMatch)) {
+                FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(),
+                        HttpResponseStatus.NOT_MODIFIED);
+                response.headers().set(HttpHeaderNames.ETAG, etag);
+                return response;
+            }
+            boolean useGzip = gzip != null && acceptsGzip(request.headers().get(HttpHeaderNames.ACCEPT_ENCODING));
+            ByteBuf content;
+            if (request.method() == HttpMethod.HEAD) {
+                content = Unpooled.EMPTY_BUFFER;
+            } else {
+                try {
+                    content = (useGzip ? gzip : identity).retainedDuplicate();
+                } catch (IllegalReferenceCountException e) {
+                    return null;
+                }
+            }
+            FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK,
+                    content);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+            response.headers().set(HttpHeaderNames.ETAG, etag);
+            response.headers().set(HttpHeaderNames.CACHE_CONTROL, HttpHeaderValues.NO_CACHE);
+            if (gzip != null) {
+                response.headers().set(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+            }
+            if (useGzip) {
+                response.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+            }
+            HttpUtil.setContentLength(response, (useGzip ? gzip : identity).readableBytes());
+            return response;
+        }
+
+        private boolean matches(String ifNoneMatch) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean acceptsGzip(String acceptEncoding) {
+            if (acceptEncoding == null) {
+                return false;
+            }
+            for (String coding : acceptEncoding.split(",")) {
+                String[] parts = coding.trim().split(";");
+                if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                    return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+                }
+            }
+            return false;
+        }
+
+        void release() {
+            identity.release();
+            if (gzip != null) {
+                gzip.release();
+            }
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public int getSize() {
+            return identity.readableBytes();
+        }
+
+        // 压缩后的大小,没有压缩内容时为 -1
+        public int getGzipSize() {
+            return gzip == null ? -1 : gzip.readableBytes();
+        }
+    }
+
+    private static ByteBuf direct(byte[] bytes) {
+        ByteBuf buf = Allocators.allocator().directBuffer(bytes.length);
+        buf.writeBytes(bytes);
+        return buf;
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] block = new byte[8192];
+            int n;
+            while ((n = in.read(block)) != -1) {
+                out.write(block, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    // 内容的 MD5 作为强校验的 ETag
+    private static String etag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String contentType(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".html") || lower.endsWith(".htm")) {
+            return "text/html; charset=UTF-8";
+        } else if (lower.endsWith(".js")) {
+            return "application/javascript; charset=UTF-8";
+        } else if (lower.endsWith(".css")) {
+            return "text/css; charset=UTF-8";
+        } else if (lower.endsWith(".png")) {
+            return "image/png";
+        } else if (lower.endsWith(".ico")) {
+            return "image/x-icon";
+        }
+        return "application/octet-stream";
+    }
+}
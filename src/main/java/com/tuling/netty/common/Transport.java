@@ -0,0 +1,156 @@
+package com.tuling.netty.common;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 服务端传输层
+ * Linux 上原生 epoll 可用时使用 epoll,否则使用 NIO。
+ * epoll 下开启 SO_REUSEPORT 时同一端口绑定多个监听通道,每个监听线程一个,由内核分发新连接,
+ * 连接风暴时接入能力随监听线程数线性增长。通道的缓冲区统一由 Allocators 分配。
+ * 配置来自系统属性:
+ * <pre>
+ * netty.transport     auto|epoll|nio,默认 auto
+ * netty.reuseport     是否开启 SO_REUSEPORT 多监听,默认 true,仅 epoll 有效
+ * netty.epoll.mode    edge|level,epoll 触发模式,默认 edge
+ * netty.acceptors     监听线程数
+ * netty.workers       IO 线程数,0 时为 CPU 核数 * 2
+ * netty.backlog       SO_BACKLOG
+ * netty.tcpNoDelay    TCP_NODELAY,默认 true
+ * netty.sndbuf        SO_SNDBUF,0 时使用系统默认值
+ * netty.rcvbuf        SO_RCVBUF,0 时使用系统默认值
+ * </pre>
+ */
+public final class Transport {
+    static final Logger logger = LoggerFactory.getLogger(Transport.class);
+
+    private final String name;
+    private final boolean epoll;
+    private final boolean reusePort;
+    private final int acceptors;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+
+    private Transport(String name, boolean epoll, boolean reusePort, int acceptors, int workers) {
+        this.name = name;
+        this.epoll = epoll;
+        this.reusePort = reusePort;
+        this.acceptors = acceptors;
+        DefaultThreadFactory bossFactory = new DefaultThreadFactory(name + "-boss");
+        DefaultThreadFactory workerFactory = new DefaultThreadFactory(name + "-worker");
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(acceptors, bossFactory);
+            workerGroup = new EpollEventLoopGroup(workers, workerFactory);
+        } else {
+            bossGroup = new NioEventLoopGroup(acceptors, bossFactory);
+            workerGroup = new NioEventLoopGroup(workers, workerFactory);
+        }
+    }
+
+    /**
+     * 按系统属性创建传输层
+     *
+     * @param name             线程名前缀
+     * @param defaultAcceptors 未配置时的监听线程数
+     * @param defaultWorkers   未配置时的 IO 线程数
+     */
+    public static Transport create(String name, int defaultAcceptors, int defaultWorkers) {
+        String type = System.getProperty("netty.transport", "auto");
+        boolean epoll;
+        if ("nio".equals(type)) {
+            epoll = false;
+        } else if (Epoll.isAvailable()) {
+            epoll = true;
+        } else {
+            if ("epoll".equals(type)) {
+                logger.warn("epoll 不可用,使用 NIO", Epoll.unavailabilityCause());
+            }
+            epoll = false;
+        }
+        boolean reusePort = epoll && Boolean.parseBoolean(System.getProperty("netty.reuseport", "true"));
+        int acceptors = Integer.getInteger("netty.acceptors", defaultAcceptors);
+        int workers = Integer.getInteger("netty.workers", defaultWorkers);
+        logger.info("{} 传输层:{},SO_REUSEPORT:{},监听线程:{},IO 线程:{}",
+                name, epoll ? "epoll" : "nio", reusePort, acceptors, workers);
+        Transport transport = new Transport(name, epoll, reusePort, acceptors, workers);
+        Allocators.scheduleReport(transport.workerGroup);
+        return transport;
+    }
+
+    /**
+     * 设置好线程组、通道类型与配置中的选项的 ServerBootstrap
+     *
+     * @param backlog 未配置时的 SO_BACKLOG
+     */
+    public ServerBootstrap serverBootstrap(int backlog) {
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.ALLOCATOR, Allocators.allocator())
+                .childOption(ChannelOption.ALLOCATOR, Allocators.allocator())
+                .option(ChannelOption.SO_BACKLOG, Integer.getInteger("netty.backlog", backlog))
+                .childOption(ChannelOption.TCP_NODELAY,
+                        Boolean.parseBoolean(System.getProperty("netty.tcpNoDelay", "true")));
+        int sndbuf = Integer.getInteger("netty.sndbuf", 0);
+        if (sndbuf > 0) {
+            b.childOption(ChannelOption.SO_SNDBUF, sndbuf);
+        }
+        int rcvbuf = Integer.getInteger("netty.rcvbuf", 0);
+        if (rcvbuf > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, rcvbuf);
+        }
+        if (epoll) {
+            EpollMode mode = "level".equals(System.getProperty("netty.epoll.mode"))
+                    ? EpollMode.LEVEL_TRIGGERED : EpollMode.EDGE_TRIGGERED;
+            b.option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            if (reusePort) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+        return b;
+    }
+
+    /**
+     * 绑定端口,开启 SO_REUSEPORT 时每个监听线程绑定一个监听通道
+     *
+     * @return 所有监听通道,可通过 newCloseFuture() 等待全部关闭
+     */
+    public ChannelGroup bind(ServerBootstrap b, int port) throws InterruptedException {
+        ChannelGroup group = new DefaultChannelGroup(name + "-acceptors", GlobalEventExecutor.INSTANCE);
+        int count = reusePort ? acceptors : 1;
+        for (int i = 0; i < count; i++) {
+            Channel channel = b.bind(port).sync().channel();
+            group.add(channel);
+        }
+        return group;
+    }
+
+    public void shutdown() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+}
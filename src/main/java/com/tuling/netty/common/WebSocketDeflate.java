@@ -0,0 +1,171 @@
+package com.tuling.netty.common;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+import io.netty.util.AttributeKey;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 可共享的 WebSocket 压缩(permessage-deflate)
+ * 协商时总是声明 server_no_context_takeover,每条消息独立压缩,
+ * 同一份广播数据压缩一次后即可发给所有协商了压缩的通道。
+ * 预先压缩的帧设置 RSV1,编码器直接放行;其余帧由编码器逐条压缩,过小的帧不压缩
+ */
+public final class WebSocketDeflate {
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+    public static final int DEFAULT_LEVEL = 6;
+    // 小于该字节数的帧不压缩
+    public static final int MIN_SIZE = 64;
+
+    // 通道已协商压缩
+    private static final AttributeKey<Boolean> NEGOTIATED = AttributeKey.valueOf("deflate.negotiated");
+    // 是否压缩该通道发送的帧,未设置时压缩
+    public static final AttributeKey<Boolean> ENABLED = AttributeKey.valueOf("deflate.enabled");
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(DEFAULT_LEVEL, true);
+        }
+    };
+
+    private WebSocketDeflate() {
+    }
+
+    /**
+     * 压缩协商处理器,需加在 HTTP 编解码之后、WebSocketServerProtocolHandler 之前
+     */
+    public static WebSocketServerExtensionHandler newHandler() {
+        return new WebSocketServerExtensionHandler(new Handshaker());
+    }
+
+    /**
+     * 通道是否协商了压缩并且开启
+     */
+    public static boolean isCompressed(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(NEGOTIATED).get())
+                && !Boolean.FALSE.equals(channel.attr(ENABLED).get());
+    }
+
+    /**
+     * 按 permessage-deflate 压缩一条消息:同步刷新后去掉结尾的 00 00 ff ff
+     */
+    public static ByteBuf deflate(ByteBufAllocator alloc, ByteBuf content) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(ByteBufUtil.getBytes(content));
+        ByteBuf out = alloc.buffer(content.readableBytes() / 2 + 16);
+        byte[] block = new byte[Math.min(8192, content.readableBytes() + 16)];
+        int n;
+        do {
+            n = deflater.deflate(block, 0, block.length, Deflater.SYNC_FLUSH);
+            out.writeBytes(block, 0, n);
+        } while (n == block.length);
+        out.writerIndex(out.writerIndex() - 4);
+        return out;
+    }
+
+    // 已压缩内容的帧
+    public static TextWebSocketFrame textFrame(ByteBuf compressed) {
+        return new TextWebSocketFrame(true, WebSocketExtension.RSV1, compressed);
+    }
+
+    public static BinaryWebSocketFrame binaryFrame(ByteBuf compressed) {
+        return new BinaryWebSocketFrame(true, WebSocketExtension.RSV1, compressed);
+    }
+
+    /**
+     * 在客户端的请求上追加 server_no_context_takeover 后交给 Netty 协商,
+     * 编码器换成可放行预先压缩帧的 Encoder。
+     * Deflater 的窗口固定为 15 位,请求 server_max_window_bits 的客户端不开启压缩
+     */
+    static class Handshaker implements WebSocketServerExtensionHandshaker {
+        private final PerMessageDeflateServerExtensionHandshaker delegate = new PerMessageDeflateServerExtensionHandshaker(
+                DEFAULT_LEVEL, false, PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE, true, false);
+
+        @Override
+        public WebSocketServerExtension handshakeExtension(WebSocketExtensionData data) {
+            if (!PERMESSAGE_DEFLATE.equals(data.name())) {
+                return null;
+            }
+            Map<String, String> parameters = new HashMap<>(data.parameters());
+            parameters.put(SERVER_NO_CONTEXT, null);
+            final WebSocketServerExtension extension = delegate.handshakeExtension(
+                    new WebSocketExtensionData(data.name(), parameters));
+            if (extension == null) {
+                return null;
+            }
+            return new WebSocketServerExtension() {
+                @Override
+                public WebSocketExtensionData newReponseData() {
+                    return extension.newReponseData();
+                }
+
+                @Override
+                public int rsv() {
+                    return extension.rsv();
+                }
+
+                @Override
+                public WebSocketExtensionEncoder newExtensionEncoder() {
+                    return new Encoder();
+                }
+
+                @Override
+                public WebSocketExtensionDecoder newExtensionDecoder() {
+                    return extension.newExtensionDecoder();
+                }
+            };
+        }
+    }
+
+    static class Encoder extends WebSocketExtensionEncoder {
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            ctx.channel().attr(NEGOTIATED).set(true);
+        }
+
+        @Override
+        public boolean acceptOutboundMessage(Object msg) throws Exception {
+            if (!(msg instanceof TextWebSocketFrame) && !(msg instanceof BinaryWebSocketFrame)) {
+                return false;
+            }
+            WebSocketFrame frame = (WebSocketFrame) msg;
+            return (frame.rsv() & WebSocketExtension.RSV1) == 0 && frame.isFinalFragment()
+                    && frame.content().readableBytes() >= MIN_SIZE;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) throws Exception {
+            if (Boolean.FALSE.equals(ctx.channel().attr(ENABLED).get())) {
+                out.add(frame.retain());
+                return;
+            }
+            ByteBuf compressed = deflate(ctx.alloc(), frame.content());
+            if (frame instanceof TextWebSocketFrame) {
+                out.add(new TextWebSocketFrame(true, frame.rsv() | WebSocketExtension.RSV1, compressed));
+            } else {
+                out.add(new BinaryWebSocketFrame(true, frame.rsv() | WebSocketExtension.RSV1, compressed));
+            }
+        }
+    }
+}
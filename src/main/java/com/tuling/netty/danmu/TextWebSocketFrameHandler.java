@@ -1,6 +1,9 @@
 package com.tuling.netty.danmu;
 
 
+import com.tuling.netty.common.WebSocketDeflate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
@@ -22,13 +25,29 @@ public class TextWebSocketFrameHandler extends
 	protected void channelRead0(ChannelHandlerContext ctx,
 			TextWebSocketFrame msg) throws Exception { // (1)
 		Channel incoming = ctx.channel();
-		for (Channel channel : channels) {
-            if (channel != incoming){
-				channel.writeAndFlush(new TextWebSocketFrame(msg.text()));
-			} else {
-				channel.writeAndFlush(new TextWebSocketFrame("我发送的"+msg.text() ));
+		// 转发给其他人的弹幕相同 协商了压缩的通道共享压缩一次后的数据
+		ByteBuf deflated = null;
+		boolean deflate = msg.content().readableBytes() >= WebSocketDeflate.MIN_SIZE;
+		try {
+			for (Channel channel : channels) {
+				if (channel != incoming){
+					if (deflate && WebSocketDeflate.isCompressed(channel)) {
+						if (deflated == null) {
+							deflated = WebSocketDeflate.deflate(ctx.alloc(), msg.content());
+						}
+						channel.writeAndFlush(WebSocketDeflate.textFrame(deflated.retainedDuplicate()));
+					} else {
+						channel.writeAndFlush(new TextWebSocketFrame(msg.content().retainedDuplicate()));
+					}
+				} else {
+					channel.writeAndFlush(new TextWebSocketFrame(ByteBufUtil.writeUtf8(ctx.alloc(), "我发送的"+msg.text())));
+				}
 			}
-        }
+		} finally {
+			if (deflated != null) {
+				deflated.release();
+			}
+		}
 	}
 	
 	@Override
@@ -36,7 +55,8 @@ public class TextWebSocketFrameHandler extends
         Channel incoming = ctx.channel();
         
         // Broadcast a message to multiple Channels
-        channels.writeAndFlush(new TextWebSocketFrame("[SERVER] - " + incoming.remoteAddress() + " 加入"));
+        channels.writeAndFlush(new TextWebSocketFrame(
+                ByteBufUtil.writeUtf8(ctx.alloc(), "[SERVER] - " + incoming.remoteAddress() + " 加入")));
         
         channels.add(incoming);
 		System.out.println("Client:"+incoming.remoteAddress() +"加入");
@@ -47,7 +67,8 @@ public class TextWebSocketFrameHandler extends
         Channel incoming = ctx.channel();
         
         // Broadcast a message to multiple Channels
-        channels.writeAndFlush(new TextWebSocketFrame("[SERVER] - " + incoming.remoteAddress() + " 离开"));
+        channels.writeAndFlush(new TextWebSocketFrame(
+                ByteBufUtil.writeUtf8(ctx.alloc(), "[SERVER] - " + incoming.remoteAddress() + " 离开")));
         
 		System.err.println("Client:"+incoming.remoteAddress() +"离开");
 
@@ -1,11 +1,9 @@
 package com.tuling.netty.danmu;
 
+import com.tuling.netty.common.Transport;
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
 
 /**
  * Websocket 聊天服务器-服务端
@@ -21,28 +19,23 @@ public class WebsocketDanmuServer {
 
     public void run() throws Exception {
         
-        EventLoopGroup bossGroup = new NioEventLoopGroup(2); // (1)
-        EventLoopGroup workerGroup = new NioEventLoopGroup(3);
+        Transport transport = Transport.create("danmu", 2, 3); // (1)
         try {
-            ServerBootstrap b = new ServerBootstrap(); // (2)
-            b.group(bossGroup, workerGroup)
-             .channel(NioServerSocketChannel.class) // (3)
-             .childHandler(new WebsocketDanmuServerInitializer())  //(4)
-             .option(ChannelOption.SO_BACKLOG, 128)          // (5)
+            ServerBootstrap b = transport.serverBootstrap(128); // (2)(3)(5)
+            b.childHandler(new WebsocketDanmuServerInitializer())  //(4)
              .childOption(ChannelOption.SO_KEEPALIVE, true); // (6)
             
     		System.out.println("SnakeGameServer 启动了" + port);
     		
             // 绑定端口，开始接收进来的连接
-            ChannelFuture f = b.bind(port).sync(); // (7)
+            ChannelGroup acceptors = transport.bind(b, port); // (7)
 
             // 等待服务器  socket 关闭 。
             // 在这个例子中，这不会发生，但你可以优雅地关闭你的服务器。
-            f.channel().closeFuture().sync();
+            acceptors.newCloseFuture().sync();
 
         } finally {
-            workerGroup.shutdownGracefully();
-            bossGroup.shutdownGracefully();
+            transport.shutdown();
             
     		System.out.println("SnakeGameServer 关闭了");
         }
@@ -1,5 +1,6 @@
 package com.tuling.netty.danmu;
 
+import com.tuling.netty.common.WebSocketDeflate;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
@@ -29,6 +30,7 @@ public class WebsocketDanmuServerInitializer extends
 			pipeline.addLast(new HttpObjectAggregator(64*1024));
 			pipeline.addLast(new ChunkedWriteHandler());
 		*/
+		pipeline.addLast("WebSocket-deflate",WebSocketDeflate.newHandler());
 		pipeline.addLast("http-request",new HttpRequestHandler("/ws"));
 		pipeline.addLast("WebSocket-protocol",new WebSocketServerProtocolHandler("/ws"));
 		pipeline.addLast("WebSocket-request",new TextWebSocketFrameHandler());
@@ -1,9 +1,9 @@
 package com.tuling.netty.http_demo;
 
+import com.tuling.netty.common.Transport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.http.*;
 
 /**
@@ -19,11 +19,8 @@ public class HttpServer {
      */
 
     public void openServer() {
-        ServerBootstrap bootstrap = new ServerBootstrap();
-        bootstrap.channel(NioServerSocketChannel.class);
-        EventLoopGroup boot = new NioEventLoopGroup(1);
-        EventLoopGroup work = new NioEventLoopGroup(8);
-        bootstrap.group(boot, work);
+        Transport transport = Transport.create("http", 1, 8);
+        ServerBootstrap bootstrap = transport.serverBootstrap(128);
         bootstrap.childHandler(new ChannelInitializer() {
             @Override
             protected void initChannel(Channel ch) throws Exception {
@@ -33,14 +30,13 @@ public class HttpServer {
             }
         });
         try {
-            ChannelFuture f = bootstrap.bind(8080).sync();
+            ChannelGroup acceptors = transport.bind(bootstrap, 8080);
             System.out.println("服务启动成功：8080");
-            f.channel().closeFuture().sync();
+            acceptors.newCloseFuture().sync();
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
-            boot.shutdownGracefully();
-            work.shutdownGracefully();
+            transport.shutdown();
         }
     }
 
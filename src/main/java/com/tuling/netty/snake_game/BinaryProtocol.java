@@ -0,0 +1,140 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 二进制协议
+ * 客户端在 JOIN 时附加 ;proto=bin 后,版本变更以 BinaryWebSocketFrame 发送,格式如下:
+ * <pre>
+ * 消息类型   1 字节,1 = 版本变更
+ * 版本号     varint
+ * 版本时间   varint,毫秒
+ * 地图宽度   varint,格子索引 = y * 宽度 + x
+ * 分组 *     操作码 1 字节 + 格子数 varint + 格子索引 varint *
+ * </pre>
+ * 合并多个版本的变更(RANGE)消息类型为 3,版本号之后多一个 varint 起始版本。
+ * 分组内的格子索引按升序排列,第一个为绝对值,之后为与前一个格子的差值。
+ * 操作码:1 蛇身 2 食物 3 清除 4 自己的蛇头,客户端按分组顺序作画。
+ * 操作码 5 为区块快照,之后为 x、y、宽、高 四个 varint,客户端先清空该矩形,
+ * 随后的分组为矩形内的全部内容,见 InterestArea
+ * <p>
+ * 全量刷新(FULL)时以行程编码发送整个地图,见 MapSnapshot.writeBinary:
+ * <pre>
+ * 消息类型   1 字节,2 = 全量
+ * 版本号、版本时间、地图宽度、地图高度  varint
+ * 图层 *     操作码 1 字节(蛇身或食物) + 段数 varint + (与上一段之间的空位数 varint + 段长度 varint) *
+ * </pre>
+ * 开启兴趣区域时,视野全量的消息类型为 4,格式与版本变更相同,客户端先清空画面
+ * <p>
+ * 客户端以 BinaryWebSocketFrame 发送的指令:
+ * <pre>
+ * 方向控制   2 字节,1 + 按键码(37 左 38 上 39 右 40 下)
+ * </pre>
+ */
+public final class BinaryProtocol {
+    public static final byte TYPE_VERSION = 1;
+    public static final byte TYPE_SNAPSHOT = 2;
+    public static final byte TYPE_RANGE = 3;
+    public static final byte TYPE_VIEW = 4;
+
+    public static final byte OP_BODY = 1;
+    public static final byte OP_FOOD = 2;
+    public static final byte OP_CLEAR = 3;
+    public static final byte OP_HEAD = 4;
+    public static final byte OP_AREA = 5;
+
+    // 客户端指令
+    public static final byte CMD_CONTROL = 1;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * 写入版本变更,不含蛇头分组
+     */
+    public static void writeDelta(ByteBuf out, VersionDelta delta) {
+        out.writeByte(delta.isMerged() ? TYPE_RANGE : TYPE_VERSION);
+        writeVarint(out, delta.getVersion());
+        if (delta.isMerged()) {
+            writeVarint(out, delta.getFromVersion());
+        }
+        writeVarint(out, delta.getTime());
+        writeVarint(out, delta.getWidth());
+        writeGroup(out, OP_BODY, delta.getBodyNodes());
+        writeGroup(out, OP_FOOD, delta.getFoodNodes());
+        writeGroup(out, OP_CLEAR, delta.getClearNodes());
+    }
+
+    /**
+     * 写入自己的蛇头分组,追加在版本变更之后
+     */
+    public static void writeHead(ByteBuf out, int head) {
+        out.writeByte(OP_HEAD);
+        writeVarint(out, 1);
+        writeVarint(out, head);
+    }
+
+    /**
+     * 写入区块快照的矩形,客户端收到后先清空该矩形
+     */
+    public static void writeArea(ByteBuf out, int x, int y, int width, int height) {
+        out.writeByte(OP_AREA);
+        writeVarint(out, x);
+        writeVarint(out, y);
+        writeVarint(out, width);
+        writeVarint(out, height);
+    }
+
+    // 空分组不写入
+    private static void writeGroup(ByteBuf out, byte op, int[] cells) {
+        if (cells.length == 0) {
+            return;
+        }
+        out.writeByte(op);
+        writeVarint(out, cells.length);
+        int last = 0;
+        for (int cell : cells) {
+            writeVarint(out, cell - last);
+            last = cell;
+        }
+    }
+
+    // 按下标直接读取,不复制列表
+    static void writeGroup(ByteBuf out, byte op, IntList cells) {
+        int size = cells.size();
+        if (size == 0) {
+            return;
+        }
+        out.writeByte(op);
+        writeVarint(out, size);
+        int last = 0;
+        for (int i = 0; i < size; i++) {
+            int cell = cells.get(i);
+            writeVarint(out, cell - last);
+            last = cell;
+        }
+    }
+
+    /**
+     * 无符号变长整数,每字节 7 位,低位在前,最高位表示后面还有字节
+     */
+    public static void writeVarint(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarint(ByteBuf in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
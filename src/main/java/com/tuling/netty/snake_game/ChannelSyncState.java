@@ -0,0 +1,178 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import java.util.ArrayDeque;
+
+/**
+ * 通道版本同步状态
+ * 记录已发送、已送达(写入成功)与客户端确认(ACK)的版本。
+ * 通道漏掉版本(写入失败、不可写时跳过、确认长时间落后)后,
+ * 下一次广播时服务端主动补发合并的变更或全量数据,不再等待客户端请求
+ */
+class ChannelSyncState {
+    // 页面每确认 16 个版本发送一次 ACK,确认落后的上限需大于该间隔
+    private static final int PAGE_ACK_INTERVAL = 16;
+    // 不可写期间最多暂存的定向事件数,超过时丢弃最早的
+    static final int MAX_PENDING_EVENTS = 16;
+
+    // 已发送的版本,0 表示尚未同步,需要发送全量数据
+    private long sentVersion;
+    // 已写入成功的版本
+    private volatile long deliveredVersion;
+    // 客户端确认已作画的版本
+    private volatile long ackedVersion;
+    // 上一次因确认落后而重新同步时的版本
+    private long resyncVersion;
+    // 开始不可写的时间,0 表示可写
+    private long stalledSince;
+    // 开启兴趣区域时 客户端已有的视野与视野中心,只在广播中读写
+    private volatile InterestArea.Viewport viewport;
+    private volatile int center = -1;
+    // 不可写期间发给本通道的定向事件(如死亡),恢复可写后补发
+    private ArrayDeque<GameEvent> pendingEvents;
+
+    /**
+     * 按版本历史容量计算确认落后的上限。重新同步时需合并 确认版本之后 到新版本 的所有版本,
+     * 上限取历史容量的一半,合并的区间始终留在历史中,不会因版本已被覆盖而退回全量
+     */
+    static int maxAckLag(int historyCapacity) {
+        return Math.max(PAGE_ACK_INTERVAL, historyCapacity / 2);
+    }
+
+    synchronized long getSentVersion() {
+        return sentVersion;
+    }
+
+    /**
+     * 记录已发送的版本
+     *
+     * @return 写入完成的监听器
+     */
+    synchronized ChannelFutureListener sent(final long version) {
+        if (version > sentVersion) {
+            sentVersion = version;
+        }
+        return new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) {
+                    delivered(version);
+                } else {
+                    // 写入失败 从已送达的版本重新同步
+                    resync(deliveredVersion);
+                }
+            }
+        };
+    }
+
+    private synchronized void delivered(long version) {
+        if (version > deliveredVersion) {
+            deliveredVersion = version;
+        }
+    }
+
+    // 回退已发送的版本,下一次广播时从该版本之后补发
+    synchronized void resync(long version) {
+        if (version < sentVersion) {
+            sentVersion = version;
+        }
+    }
+
+    synchronized void ack(long version) {
+        if (version > ackedVersion) {
+            ackedVersion = version;
+        }
+    }
+
+    /**
+     * 客户端确认落后已发送版本超过 maxLag 时,从确认的版本重新同步,
+     * 之后需再落后 maxLag 个版本才会再次触发
+     *
+     * @return 是否触发重新同步
+     */
+    synchronized boolean checkAck(long maxLag) {
+        if (ackedVersion == 0 || sentVersion - ackedVersion <= maxLag || sentVersion - resyncVersion <= maxLag) {
+            return false;
+        }
+        resyncVersion = sentVersion;
+        sentVersion = ackedVersion;
+        return true;
+    }
+
+    /**
+     * 记录通道不可写
+     *
+     * @return 开始不可写的时间
+     */
+    synchronized long stalled(long now) {
+        if (stalledSince == 0) {
+            stalledSince = now;
+        }
+        return stalledSince;
+    }
+
+    /**
+     * 通道可写时调用
+     *
+     * @return 是否刚从不可写恢复
+     */
+    synchronized boolean drained() {
+        boolean stalled = stalledSince != 0;
+        stalledSince = 0;
+        return stalled;
+    }
+
+    /**
+     * 暂存不可写期间的定向事件
+     */
+    synchronized void queueEvent(GameEvent event) {
+        if (pendingEvents == null) {
+            pendingEvents = new ArrayDeque<>(4);
+        }
+        if (pendingEvents.size() == MAX_PENDING_EVENTS) {
+            pendingEvents.poll();
+        }
+        pendingEvents.add(event);
+    }
+
+    /**
+     * 取出暂存的定向事件
+     *
+     * @return 按发生顺序排列的事件,没有时为空
+     */
+    synchronized GameEvent[] drainEvents() {
+        if (pendingEvents == null || pendingEvents.isEmpty()) {
+            return null;
+        }
+        GameEvent[] events = pendingEvents.toArray(new GameEvent[pendingEvents.size()]);
+        pendingEvents.clear();
+        return events;
+    }
+
+    InterestArea.Viewport getViewport() {
+        return viewport;
+    }
+
+    void setViewport(InterestArea.Viewport viewport) {
+        this.viewport = viewport;
+    }
+
+    // 视野中心格子,-1 表示尚未确定
+    int getCenter() {
+        return center;
+    }
+
+    void setCenter(int center) {
+        this.center = center;
+    }
+
+    long getDeliveredVersion() {
+        return deliveredVersion;
+    }
+
+    long getAckedVersion() {
+        return ackedVersion;
+    }
+}
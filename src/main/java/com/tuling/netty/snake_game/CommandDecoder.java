@@ -0,0 +1,139 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 文本指令解码
+ * 直接在帧的 ByteBuf 上按字节解析 "指令:数据" 格式的指令,指令名按首字节分派,
+ * 数字在原位解析,除 JOIN 外不生成字符串与装箱对象
+ */
+final class CommandDecoder {
+    static final int UNKNOWN = 0;
+    static final int JOIN = 1;
+    static final int CONTROL = 2;
+    static final int FULL = 3;
+    static final int RANGE = 4;
+    static final int QUANTITATIVE = 5;
+    static final int ACK = 6;
+    static final int RESURGENCE = 7;
+
+    private static final byte[] JOIN_NAME = ascii("JOIN");
+    private static final byte[] CONTROL_NAME = ascii("CONTROL");
+    private static final byte[] FULL_NAME = ascii("FULL");
+    private static final byte[] RANGE_NAME = ascii("RANGE");
+    private static final byte[] QUANTITATIVE_NAME = ascii("QUANTITATIVE");
+    private static final byte[] ACK_NAME = ascii("ACK");
+    private static final byte[] RESURGENCE_NAME = ascii("RESURGENCE");
+
+    private CommandDecoder() {
+    }
+
+    /**
+     * 识别 [start, end) 内的指令名
+     */
+    static int command(ByteBuf buf, int start, int end) {
+        if (start >= end) {
+            return UNKNOWN;
+        }
+        switch (buf.getByte(start)) {
+            case 'J':
+                return matches(buf, start, end, JOIN_NAME) ? JOIN : UNKNOWN;
+            case 'C':
+                return matches(buf, start, end, CONTROL_NAME) ? CONTROL : UNKNOWN;
+            case 'F':
+                return matches(buf, start, end, FULL_NAME) ? FULL : UNKNOWN;
+            case 'R':
+                if (matches(buf, start, end, RANGE_NAME)) {
+                    return RANGE;
+                }
+                return matches(buf, start, end, RESURGENCE_NAME) ? RESURGENCE : UNKNOWN;
+            case 'Q':
+                return matches(buf, start, end, QUANTITATIVE_NAME) ? QUANTITATIVE : UNKNOWN;
+            case 'A':
+                return matches(buf, start, end, ACK_NAME) ? ACK : UNKNOWN;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private static boolean matches(ByteBuf buf, int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf.getByte(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析 [from, to) 内的十进制非负整数
+     *
+     * @throws NumberFormatException 为空或含有非数字字符
+     */
+    static long parseLong(ByteBuf buf, int from, int to) {
+        if (from >= to || to - from > 18) {
+            throw new NumberFormatException("数字长度:" + (to - from));
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf.getByte(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("非数字字符,位置:" + (i - from));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    static int parseInt(ByteBuf buf, int from, int to) {
+        long value = parseLong(buf, from, to);
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("超出范围:" + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 查找 [from, to) 内的区间分隔符 ".."
+     *
+     * @return 分隔符第一个字符的位置,没有分隔符时返回 to
+     * @throws NumberFormatException 含有单个 '.' 等不完整的分隔符
+     */
+    static int rangeSeparator(ByteBuf buf, int from, int to) {
+        int dot = buf.indexOf(from, to, (byte) '.');
+        if (dot < 0) {
+            return to;
+        }
+        if (dot + 1 >= to || buf.getByte(dot + 1) != '.') {
+            throw new NumberFormatException("区间分隔符不完整,位置:" + (dot - from));
+        }
+        return dot;
+    }
+
+    // 跳过开头的空白
+    static int trimStart(ByteBuf buf, int from, int to) {
+        while (from < to && (buf.getByte(from) & 0xFF) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    // 去掉结尾的空白
+    static int trimEnd(ByteBuf buf, int from, int to) {
+        while (to > from && (buf.getByte(to - 1) & 0xFF) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private static byte[] ascii(String name) {
+        byte[] bytes = new byte[name.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) name.charAt(i);
+        }
+        return bytes;
+    }
+}
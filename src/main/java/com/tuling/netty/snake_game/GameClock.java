@@ -0,0 +1,218 @@
+package com.tuling.netty.snake_game;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 固定频率游戏时钟
+ * 按理想时间点 start + n * period 调度,单次时钟变慢不会推迟之后的所有时钟。
+ * 落后一个周期以上时按追赶策略处理,并统计时钟抖动(实际执行时间与理想时间点的偏差)
+ */
+public class GameClock implements Runnable {
+    static final Logger logger = LoggerFactory.getLogger(GameClock.class);
+    // 超出预算告警的最小间隔(毫秒)
+    private static final long warnInterval = 10000;
+
+    /**
+     * 追赶策略
+     */
+    public enum CatchUp {
+        // 丢弃错过的时钟,游戏变慢但节奏不变
+        SKIP,
+        // 立即连续执行错过的时钟,最多追赶 maxSteps 个
+        COMPRESS,
+        // 一次时钟中执行多步模拟后只发送一次,最多 maxSteps 步
+        MULTI_STEP
+    }
+
+    /**
+     * 时钟任务
+     */
+    public interface Tick {
+        /**
+         * @param steps 本次需要执行的模拟步数
+         */
+        void tick(int steps);
+    }
+
+    /**
+     * 时间源,测试中可替换为手动推进的时间
+     */
+    public interface TimeSource {
+        long nanoTime();
+    }
+
+    public static final TimeSource SYSTEM_TIME = new TimeSource() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    private final String name;
+    private final ScheduledExecutorService scheduler;
+    private final TimeSource time;
+    private final long period;
+    private final CatchUp catchUp;
+    private final int maxSteps;
+    private final Tick task;
+
+    private volatile boolean running;
+    private volatile ScheduledFuture<?> future;
+    // 下一个理想时间点(纳秒)
+    private long deadline;
+    private long lastWarnTime;
+
+    // 以下统计只由时钟任务写入
+    private volatile long tickCount;
+    private volatile long stepCount;
+    private volatile long skipCount;
+    // 执行时间超过周期的次数
+    private volatile long overBudgetCount;
+    private volatile long jitterTotal;
+    private volatile long jitterMax;
+    private volatile long lastCost;
+
+    /**
+     * @param period   时钟周期(毫秒)
+     * @param maxSteps COMPRESS 与 MULTI_STEP 策略下最多追赶的步数
+     */
+    public GameClock(String name, ScheduledExecutorService scheduler, long period,
+                     CatchUp catchUp, int maxSteps, Tick task) {
+        this(name, scheduler, period, catchUp, maxSteps, task, SYSTEM_TIME);
+    }
+
+    /**
+     * @param time 计算理想时间点与耗时所用的时间源
+     */
+    public GameClock(String name, ScheduledExecutorService scheduler, long period,
+                     CatchUp catchUp, int maxSteps, Tick task, TimeSource time) {
+        this.name = name;
+        this.time = time;
+        this.scheduler = scheduler;
+        this.period = TimeUnit.MILLISECONDS.toNanos(period);
+        this.catchUp = catchUp;
+        this.maxSteps = Math.max(1, maxSteps);
+        this.task = task;
+    }
+
+    public void start() {
+        running = true;
+        deadline = time.nanoTime() + period;
+        future = scheduler.schedule(this, period, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        running = false;
+        ScheduledFuture<?> f = future;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!running) {
+            return;
+        }
+        long begin = time.nanoTime();
+        long late = Math.max(0, begin - deadline);
+        jitterTotal += late;
+        if (late > jitterMax) {
+            jitterMax = late;
+        }
+        // 包括本次在内已到期的时钟数
+        long due = 1 + late / period;
+        int steps = 1;
+        switch (catchUp) {
+            case SKIP:
+                skipCount += due - 1;
+                deadline += due * period;
+                break;
+            case COMPRESS:
+                // 超出追赶上限的部分直接丢弃,其余在之后的调度中立即执行
+                if (due > maxSteps) {
+                    skipCount += due - maxSteps;
+                    deadline += (due - maxSteps) * period;
+                }
+                deadline += period;
+                break;
+            case MULTI_STEP:
+                steps = (int) Math.min(due, maxSteps);
+                skipCount += due - steps;
+                deadline += due * period;
+                break;
+        }
+        try {
+            task.tick(steps);
+        } catch (Throwable e) {
+            logger.error("时钟任务异常", e);
+        }
+        long end = time.nanoTime();
+        tickCount++;
+        stepCount += steps;
+        lastCost = end - begin;
+        if (lastCost > period) {
+            overBudgetCount++;
+            long now = System.currentTimeMillis();
+            if (now - lastWarnTime >= warnInterval) {
+                lastWarnTime = now;
+                logger.warn("时钟:{} 超出预算 耗时:{}us 周期:{}us 累计超时:{} 丢弃:{}", name,
+                        lastCost / 1000, period / 1000, overBudgetCount, skipCount);
+            }
+        }
+        if (running) {
+            future = scheduler.schedule(this, Math.max(0, deadline - end), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public CatchUp getCatchUp() {
+        return catchUp;
+    }
+
+    // 已执行的时钟次数
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    // 已执行的模拟步数
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    // 丢弃的时钟次数
+    public long getSkipCount() {
+        return skipCount;
+    }
+
+    public long getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    // 最近一次时钟执行耗时(纳秒)
+    public long getLastCost() {
+        return lastCost;
+    }
+
+    // 平均抖动(纳秒)
+    public long getJitterAvg() {
+        long count = tickCount;
+        return count == 0 ? 0 : jitterTotal / count;
+    }
+
+    // 最大抖动(纳秒)
+    public long getJitterMax() {
+        return jitterMax;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[ticks=" + tickCount + ",steps=" + stepCount + ",skips=" + skipCount
+                + ",overBudget=" + overBudgetCount + ",jitterAvg=" + getJitterAvg() / 1000
+                + "us,jitterMax=" + jitterMax / 1000 + "us]";
+    }
+}
@@ -0,0 +1,38 @@
+package com.tuling.netty.snake_game;
+
+/**
+ * 玩家指令
+ * 由 IO 线程提交到引擎指令队列,在游戏时钟线程中统一执行
+ */
+class GameCommand {
+    final Type type;
+    final String accountId;
+    final String data; // 指令数据,如游戏名称
+    final int code; // 控制码
+
+    GameCommand(Type type, String accountId, String data, int code) {
+        this.type = type;
+        this.accountId = accountId;
+        this.data = data;
+        this.code = code;
+    }
+
+    enum Type {
+        /**
+         * 加入游戏
+         */
+        join,
+        /**
+         * 控制方向
+         */
+        control,
+        /**
+         * 复活
+         */
+        resurgence,
+        /**
+         * 离开游戏
+         */
+        offline
+    }
+}
@@ -0,0 +1,410 @@
+package com.tuling.netty.snake_game;
+
+import com.alibaba.fastjson.JSON;
+import com.tuling.netty.common.WebSocketDeflate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 游戏房间
+ * 一个房间对应一个游戏引擎和加入该房间的所有通道
+ */
+public class GameRoom implements SnakeGameEngine.SnakeGameListener {
+    private final String roomId;
+    private final SnakeGameEngine gameEngine;
+    private final ChannelGroup channels;
+    // 客户端确认落后超过该版本数时主动重新同步,需大于页面确认的间隔,见 ChannelSyncState.maxAckLag
+    private final int maxAckLag;
+    // 兴趣区域,为空时每个通道接收整个地图的变更
+    private volatile InterestArea interestArea;
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DEFAULT;
+    // 是否压缩发往协商了压缩的通道的帧,共享的版本变更只压缩一次
+    private volatile boolean compression = true;
+    // 压缩前后发送的版本变更字节数
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong deflatedBytes = new AtomicLong();
+    // 广播中发往各通道的帧,按 EventLoop 分组,广播结束时每个 EventLoop 提交一次写出任务
+    private final OutboundBatch batch = new OutboundBatch();
+    // 已关闭的房间不再接收通道,加入与关闭在房间锁内互斥
+    private volatile boolean closed;
+
+    public GameRoom(String roomId, SnakeGameEngine gameEngine) {
+        this.roomId = roomId;
+        this.gameEngine = gameEngine;
+        this.channels = new DefaultChannelGroup(roomId, GlobalEventExecutor.INSTANCE);
+        this.maxAckLag = ChannelSyncState.maxAckLag(gameEngine.getHistoryCapacity());
+    }
+
+    // 启动 游戏引擎
+    public void start() {
+        gameEngine.setListener(this);
+        gameEngine.start();
+    }
+
+    public void stop() {
+        gameEngine.stop();
+    }
+
+    /**
+     * 通道加入房间
+     *
+     * @return 房间已关闭时返回 false,调用方需重新获取房间
+     */
+    public synchronized boolean join(Channel channel) {
+        if (closed) {
+            return false;
+        }
+        channels.add(channel);
+        return true;
+    }
+
+    /**
+     * 房间内没有通道时关闭房间,之后加入的通道会失败
+     *
+     * @return 是否由本次调用关闭
+     */
+    synchronized boolean close() {
+        if (closed || !channels.isEmpty()) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void versionChange(VersionDelta delta) {
+        InterestArea area = interestArea;
+        if (area != null) {
+            sendViewData(area, delta);
+        } else {
+            sendVersionData(delta);
+        }
+    }
+
+    @Override
+    public void statusChange(GameStatistics statistics) {
+        sendStatusData(statistics);
+    }
+
+    @Override
+    public void noticeEvent(GameEvent[] events) {
+        sendEvent(events);
+    }
+
+    @Override
+    public void flush() {
+        batch.flush();
+    }
+
+    /**
+     * 每个事件只编码一次,发往各通道的帧共享同一份数据。
+     * 不可写的通道不发送全体事件,定向事件暂存到通道的同步状态,恢复可写后补发
+     */
+    private void sendEvent(GameEvent[] events) {
+        ByteBuf[] encoded = new ByteBuf[events.length];
+        try {
+            for (Channel channel : channels) {
+                boolean writable = channel.isWritable();
+                ChannelSyncState sync = SnakeGameHandler.syncState(channel);
+                if (writable) {
+                    sendPendingEvents(channel, sync);
+                }
+                for (int i = 0; i < events.length; i++) {
+                    GameEvent event = events[i];
+                    if (event.getAccountId() == null) {
+                        if (!writable) {
+                            continue;
+                        }
+                    } else if (!event.getAccountId().equals(channel.id().asShortText())) {
+                        continue;
+                    } else if (!writable) {
+                        sync.queueEvent(event);
+                        continue;
+                    }
+                    if (encoded[i] == null) {
+                        encoded[i] = encodeEvent(channel, event);
+                    }
+                    batch.write(channel, new TextWebSocketFrame(encoded[i].retainedDuplicate()));
+                }
+            }
+        } finally {
+            for (ByteBuf buf : encoded) {
+                release(buf);
+            }
+        }
+    }
+
+    // 补发不可写期间暂存的定向事件
+    private void sendPendingEvents(Channel channel, ChannelSyncState sync) {
+        GameEvent[] pending = sync.drainEvents();
+        if (pending == null) {
+            return;
+        }
+        for (GameEvent event : pending) {
+            batch.write(channel, new TextWebSocketFrame(encodeEvent(channel, event)));
+        }
+    }
+
+    private ByteBuf encodeEvent(Channel channel, GameEvent event) {
+        return ByteBufUtil.writeUtf8(channel.alloc(), "event\r\n" + JSON.toJSONString(event));
+    }
+
+    /**
+     * 版本变更按协议各编码一次,所有通道共享同一份数据,
+     * 每个玩家自己的蛇头单独追加或单独发送,广播开销为 O(数据量 + 通道数)。
+     * 帧写入本次广播的批量写,与状态、事件一起在广播结束时刷新。
+     * 协商了压缩的通道共享压缩一次后的数据,蛇头以文本消息单独发送。
+     * 落后的通道补发合并的变更或全量数据,不可写的通道按慢消费者策略处理
+     */
+    private void sendVersionData(VersionDelta delta) {
+        ByteBuf binary = null;
+        ByteBuf text = null;
+        ByteBuf binaryDeflated = null;
+        ByteBuf textDeflated = null;
+        boolean compression = this.compression;
+        // 本次广播中按起始版本缓存的合并变更
+        Map<Long, VersionDelta> catchUps = null;
+        SlowConsumerPolicy policy = slowConsumerPolicy;
+        long now = System.currentTimeMillis();
+        try {
+            for (Channel channel : channels) {
+                ChannelSyncState sync = SnakeGameHandler.syncState(channel);
+                if (!policy.check(channel, sync, now)) {
+                    continue;
+                }
+                sendPendingEvents(channel, sync);
+                sync.checkAck(maxAckLag);
+                long sent = sync.getSentVersion();
+                if (sent >= delta.getVersion()) {
+                    continue;
+                }
+                if (sent != delta.getFromVersion() - 1) {
+                    if (catchUps == null) {
+                        catchUps = new HashMap<>();
+                    }
+                    catchUp(channel, sent, delta, catchUps);
+                    continue;
+                }
+                ChannelFutureListener listener = sync.sent(delta.getVersion());
+                int head = gameEngine.getHead(channel.id().asShortText());
+                boolean deflate = compression && WebSocketDeflate.isCompressed(channel);
+                if (SnakeGameHandler.isBinary(channel)) {
+                    if (binary == null) {
+                        binary = channel.alloc().buffer();
+                        BinaryProtocol.writeDelta(binary, delta);
+                    }
+                    if (deflate) {
+                        if (binaryDeflated == null) {
+                            binaryDeflated = WebSocketDeflate.deflate(channel.alloc(), binary);
+                        }
+                        countDeflate(binary, binaryDeflated);
+                        batch.write(channel, WebSocketDeflate.binaryFrame(binaryDeflated.retainedDuplicate()), listener);
+                        writeTextHead(channel, delta, head);
+                        continue;
+                    }
+                    ByteBuf frame = binary.retainedDuplicate();
+                    if (head != MapGrid.OUTSIDE) {
+                        // 自己的蛇头作为尾部分组追加
+                        ByteBuf trailer = channel.alloc().buffer(8);
+                        BinaryProtocol.writeHead(trailer, head);
+                        frame = channel.alloc().compositeBuffer(2).addComponents(true, frame, trailer);
+                    }
+                    batch.write(channel, new BinaryWebSocketFrame(frame), listener);
+                } else {
+                    if (text == null) {
+                        text = channel.alloc().buffer();
+                        ByteBufUtil.writeAscii(text, "version\r\n");
+                        ByteBufUtil.writeUtf8(text, JSON.toJSONString(delta.toVersionData()));
+                    }
+                    if (deflate) {
+                        if (textDeflated == null) {
+                            textDeflated = WebSocketDeflate.deflate(channel.alloc(), text);
+                        }
+                        countDeflate(text, textDeflated);
+                        batch.write(channel, WebSocketDeflate.textFrame(textDeflated.retainedDuplicate()), listener);
+                    } else {
+                        batch.write(channel, new TextWebSocketFrame(text.retainedDuplicate()), listener);
+                    }
+                    writeTextHead(channel, delta, head);
+                }
+            }
+        } finally {
+            release(binary);
+            release(text);
+            release(binaryDeflated);
+            release(textDeflated);
+        }
+    }
+
+    private void release(ByteBuf buf) {
+        if (buf != null) {
+            buf.release();
+        }
+    }
+
+    private void countDeflate(ByteBuf raw, ByteBuf deflated) {
+        rawBytes.addAndGet(raw.readableBytes());
+        deflatedBytes.addAndGet(deflated.readableBytes());
+    }
+
+    /**
+     * 按兴趣区域发送:每个通道只接收视野内区块的分片,分片按区块与协议各编码一次,文本与二进制帧均由共享的分片组装;
+     * 视野新覆盖的区块、落后或未同步的通道发送区块快照
+     */
+    private void sendViewData(InterestArea area, VersionDelta delta) {
+        InterestArea.Slices slices = area.slice(delta, gameEngine.getSnapshot());
+        SlowConsumerPolicy policy = slowConsumerPolicy;
+        long now = System.currentTimeMillis();
+        try {
+            for (Channel channel : channels) {
+                ChannelSyncState sync = SnakeGameHandler.syncState(channel);
+                if (!policy.check(channel, sync, now)) {
+                    continue;
+                }
+                sendPendingEvents(channel, sync);
+                sync.checkAck(maxAckLag);
+                long sent = sync.getSentVersion();
+                if (sent >= delta.getVersion()) {
+                    continue;
+                }
+                int head = gameEngine.getHead(channel.id().asShortText());
+                if (head != MapGrid.OUTSIDE) {
+                    sync.setCenter(head);
+                } else if (sync.getCenter() < 0) {
+                    sync.setCenter(area.center());
+                }
+                InterestArea.Viewport view = area.viewport(sync.getCenter());
+                // 未同步时发送视野全量,落后时视野内的区块全部发送快照
+                InterestArea.Viewport old = sent == delta.getVersion() - 1 ? sync.getViewport() : null;
+                long from = sent == 0 ? 0 : sent + 1;
+                sync.setViewport(view);
+                ChannelFutureListener listener = sync.sent(delta.getVersion());
+                if (SnakeGameHandler.isBinary(channel)) {
+                    CompositeByteBuf frame = slices.binaryFrame(channel.alloc(), from, view, old);
+                    if (head != MapGrid.OUTSIDE) {
+                        ByteBuf trailer = channel.alloc().buffer(8);
+                        BinaryProtocol.writeHead(trailer, head);
+                        frame.addComponent(true, trailer);
+                    }
+                    batch.write(channel, new BinaryWebSocketFrame(frame), listener);
+                } else {
+                    batch.write(channel, new TextWebSocketFrame(
+                            slices.textFrame(channel.alloc(), from, view, old)), listener);
+                    writeTextHead(channel, delta, head);
+                }
+            }
+        } finally {
+            slices.release();
+        }
+    }
+
+    // 自己的蛇头单独发送 格式:版本号,x,y
+    private void writeTextHead(Channel channel, VersionDelta delta, int head) {
+        if (head != MapGrid.OUTSIDE) {
+            ByteBuf frame = channel.alloc().buffer(32);
+            ByteBufUtil.writeAscii(frame, "head\r\n" + delta.getVersion() + ","
+                    + head % delta.getWidth() + "," + head / delta.getWidth());
+            batch.write(channel, new TextWebSocketFrame(frame));
+        }
+    }
+
+    // 未同步过或历史已被覆盖时发送全量数据,否则发送从已发送版本之后合并的变更
+    private void catchUp(Channel channel, long sent, VersionDelta delta, Map<Long, VersionDelta> catchUps) {
+        VersionDelta merged = null;
+        if (sent > 0) {
+            merged = catchUps.get(sent);
+            if (merged == null && !catchUps.containsKey(sent)) {
+                merged = gameEngine.getVersionRange(sent + 1, delta.getVersion());
+                catchUps.put(sent, merged);
+            }
+        }
+        if (merged != null) {
+            SnakeGameHandler.sendDelta(channel, merged, batch);
+        } else {
+            SnakeGameHandler.sendFull(channel, gameEngine, batch);
+        }
+    }
+
+    private void sendStatusData(GameStatistics statistics) {
+        String prefix = "status\r\n";
+        for (Channel channel : channels) {
+            if (!channel.isWritable()) { // 状态定期发送 丢弃即可
+                continue;
+            }
+            IntegralInfo info = gameEngine.getBroadcastIntegralInfo(channel.id().asShortText());
+            statistics.setCurrent(info);
+            batch.write(channel, new TextWebSocketFrame(
+                    ByteBufUtil.writeUtf8(channel.alloc(), prefix + JSON.toJSONString(statistics))));
+        }
+    }
+
+    /**
+     * 开启兴趣区域,为空时关闭
+     */
+    public void setInterestArea(InterestArea interestArea) {
+        this.interestArea = interestArea;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * 开启或关闭本房间的压缩,对已在房间中的通道立即生效
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+        for (Channel channel : channels) {
+            channel.attr(WebSocketDeflate.ENABLED).set(compression);
+        }
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * 共享版本变更的压缩率(压缩后字节数 / 压缩前字节数),没有压缩过时为 1
+     */
+    public double getCompressionRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1 : (double) deflatedBytes.get() / raw;
+    }
+
+    // 压缩节省的字节数
+    public long getDeflateSavedBytes() {
+        return rawBytes.get() - deflatedBytes.get();
+    }
+
+    public InterestArea getInterestArea() {
+        return interestArea;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public SnakeGameEngine getGameEngine() {
+        return gameEngine;
+    }
+
+    public ChannelGroup getChannels() {
+        return channels;
+    }
+}
@@ -0,0 +1,243 @@
+package com.tuling.netty.snake_game;
+
+import com.tuling.netty.common.Allocators;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * 游戏房间管理
+ * 所有房间的游戏引擎共用一个按 CPU 核数创建的时钟线程池,
+ * 单个引擎的时钟任务不会并发执行,因此引擎内部仍然只有一个写线程。
+ * 开启流水线时按时钟线程数创建多条流水线,新建的房间分配到房间最少的流水线,
+ * 不同流水线上的房间在不同线程中模拟。
+ * 作为统计来源注册到 Allocators 后,各房间的压缩率随分配器统计定期输出
+ */
+public class GameRoomManager implements Allocators.StatsSource {
+    static final Logger logger = LoggerFactory.getLogger(GameRoomManager.class);
+    public static final String DEFAULT_ROOM = "default";
+    // 房间号最大长度
+    private static final int roomIdMaxLength = 32;
+
+    private final int mapWidth;
+    private final int mapHeight;
+    private final int refreshTime;
+    private final int tickThreads;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, GameRoom> rooms = new ConcurrentHashMap<>();
+    // 每条流水线的槽位数,由分配到该流水线的房间共用
+    private static final int pipelineRingSize = 256;
+    // 流水线分片,为空时不开启流水线
+    private TickPipeline[] pipelines;
+    // 各流水线上的房间数,在 rooms 锁内修改
+    private int[] pipelineRooms;
+    // 新建房间的时钟追赶策略
+    private GameClock.CatchUp catchUp = GameClock.CatchUp.SKIP;
+    private int maxCatchUpSteps = 3;
+    // 新建房间的兴趣区域 区块大小与视野半径,区块大小为 0 时不开启
+    private int interestTileSize;
+    private int interestRadius;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DEFAULT;
+    private boolean compression = true;
+
+    public GameRoomManager(int mapWidth, int mapHeight, int refreshTime) {
+        this(mapWidth, mapHeight, refreshTime, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param tickThreads 时钟线程数
+     */
+    public GameRoomManager(int mapWidth, int mapHeight, int refreshTime, int tickThreads) {
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+        this.refreshTime = refreshTime;
+        this.tickThreads = tickThreads;
+        this.scheduler = Executors.newScheduledThreadPool(tickThreads, new DefaultThreadFactory("snake-tick"));
+    }
+
+    // 创建默认房间
+    public void start() {
+        getRoom(DEFAULT_ROOM);
+    }
+
+    /**
+     * 获取房间,不存在或已关闭时创建并启动。创建在锁内进行,每个房间号同时只有一个引擎
+     */
+    public GameRoom getRoom(String roomId) {
+        if (roomId == null || roomId.isEmpty()) {
+            roomId = DEFAULT_ROOM;
+        }
+        if (roomId.length() > roomIdMaxLength) {
+            throw new IllegalArgumentException("房间号过长:" + roomId);
+        }
+        GameRoom room = rooms.get(roomId);
+        if (room != null && !room.isClosed()) {
+            return room;
+        }
+        synchronized (rooms) {
+            room = rooms.get(roomId);
+            if (room == null || room.isClosed()) {
+                room = createRoom(roomId);
+                rooms.put(roomId, room);
+                room.start();
+                logger.info("创建房间:{} 当前房间数:{}", roomId, rooms.size());
+            }
+            return room;
+        }
+    }
+
+    private GameRoom createRoom(String roomId) {
+        SnakeGameEngine engine = new SnakeGameEngine(mapWidth, mapHeight, refreshTime, scheduler);
+        engine.setName("room-" + roomId);
+        engine.setCatchUp(catchUp, maxCatchUpSteps);
+        if (pipelines != null) {
+            engine.setPipeline(assignPipeline());
+        }
+        GameRoom newRoom = new GameRoom(roomId, engine);
+        newRoom.setSlowConsumerPolicy(slowConsumerPolicy);
+        newRoom.setCompression(compression);
+        if (interestTileSize > 0) {
+            newRoom.setInterestArea(new InterestArea(mapWidth, mapHeight, interestTileSize, interestRadius));
+        }
+        return newRoom;
+    }
+
+    // 房间最少的流水线,在 rooms 锁内调用
+    private TickPipeline assignPipeline() {
+        int shard = 0;
+        for (int i = 1; i < pipelines.length; i++) {
+            if (pipelineRooms[i] < pipelineRooms[shard]) {
+                shard = i;
+            }
+        }
+        pipelineRooms[shard]++;
+        return pipelines[shard];
+    }
+
+    // 房间关闭后从所在流水线的房间数中扣除
+    private void releasePipeline(TickPipeline pipeline) {
+        synchronized (rooms) {
+            for (int i = 0; pipelines != null && i < pipelines.length; i++) {
+                if (pipelines[i] == pipeline) {
+                    pipelineRooms[i]--;
+                }
+            }
+        }
+    }
+
+    /**
+     * 新建的房间以流水线模式构建地图,按时钟线程数创建流水线分片,需在创建房间之前调用。
+     * 每个房间最多占用 TickPipeline.DEFAULT_RING_SIZE 个槽位
+     *
+     * @param waitStrategy 等待策略名称,见 TickPipeline.waitStrategy(String),为空时不开启
+     */
+    public void setPipelineWaitStrategy(String waitStrategy) {
+        shutdownPipelines();
+        if (waitStrategy != null) {
+            pipelines = new TickPipeline[tickThreads];
+            pipelineRooms = new int[tickThreads];
+            for (int i = 0; i < pipelines.length; i++) {
+                pipelines[i] = new TickPipeline(pipelineRingSize, TickPipeline.DEFAULT_RING_SIZE,
+                        TickPipeline.waitStrategy(waitStrategy));
+                pipelines[i].start();
+            }
+        }
+    }
+
+    private void shutdownPipelines() {
+        if (pipelines != null) {
+            for (TickPipeline pipeline : pipelines) {
+                pipeline.shutdown();
+            }
+            pipelines = null;
+            pipelineRooms = null;
+        }
+    }
+
+    /**
+     * 新建房间的时钟追赶策略
+     *
+     * @param maxSteps 最多追赶的步数
+     */
+    public void setCatchUp(GameClock.CatchUp catchUp, int maxSteps) {
+        this.catchUp = catchUp;
+        this.maxCatchUpSteps = maxSteps;
+    }
+
+    /**
+     * 新建的房间开启兴趣区域,每个玩家只接收视野内的变更
+     *
+     * @param tileSize 区块大小(格子数),为 0 时不开启
+     * @param radius   视野半径(格子数)
+     */
+    public void setInterestArea(int tileSize, int radius) {
+        this.interestTileSize = tileSize;
+        this.interestRadius = radius;
+    }
+
+    // 新建房间的慢消费者策略
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    // 新建房间是否压缩发往协商了压缩的通道的帧
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    public GameRoom getDefaultRoom() {
+        return getRoom(DEFAULT_ROOM);
+    }
+
+    /**
+     * 关闭无人的房间,默认房间始终保留。
+     * 与 GameRoom.join 在房间锁内互斥,关闭后加入失败的通道重新获取房间时会创建新的房间
+     */
+    public void releaseRoom(GameRoom room) {
+        if (DEFAULT_ROOM.equals(room.getRoomId()) || !room.close()) {
+            return;
+        }
+        rooms.remove(room.getRoomId(), room);
+        room.stop();
+        releasePipeline(room.getGameEngine().getPipeline());
+        logger.info("关闭房间:{} 当前房间数:{}", room.getRoomId(), rooms.size());
+    }
+
+    public Collection<GameRoom> getRooms() {
+        return rooms.values();
+    }
+
+    /**
+     * 开启压缩的房间的压缩率与节省的字节数,没有压缩过时为空
+     */
+    @Override
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (GameRoom room : rooms.values()) {
+            long saved = room.getDeflateSavedBytes();
+            if (!room.isCompression() && saved == 0) {
+                continue;
+            }
+            sb.append(sb.length() == 0 ? "压缩" : ",")
+                    .append(" 房间:").append(room.getRoomId())
+                    .append(" 压缩率:").append(String.format("%.3f", room.getCompressionRatio()))
+                    .append(" 节省:").append(saved);
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        for (GameRoom room : rooms.values()) {
+            room.stop();
+        }
+        rooms.clear();
+        scheduler.shutdown();
+        shutdownPipelines();
+    }
+}
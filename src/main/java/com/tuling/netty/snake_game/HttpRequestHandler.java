@@ -1,32 +1,15 @@
 package com.tuling.netty.snake_game;
 
+import com.tuling.netty.common.StaticAssetCache;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.ssl.SslHandler;
-import io.netty.handler.stream.ChunkedNioFile;
-
-import java.io.File;
-import java.io.RandomAccessFile;
-import java.net.URISyntaxException;
-import java.net.URL;
 
 /**
  * 处理 Http 请求
  */
 public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> { //1
     private final String wsUri;
-    private static final File INDEX;
-
-    static {
-        URL location = HttpRequestHandler.class.getProtectionDomain().getCodeSource().getLocation();
-        try {
-            String path = location.toURI() + "SnakeGamePage.html";
-            path = !path.contains("file:") ? path : path.substring(5);
-            INDEX = new File(path);
-        } catch (URISyntaxException e) {
-            throw new IllegalStateException("Unable to locate SnakeGamePage.html", e);
-        }
-    }
+    private static final String INDEX = "SnakeGamePage.html";
 
     public HttpRequestHandler(String wsUri) {
         this.wsUri = wsUri;
@@ -41,30 +24,8 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
                 send100Continue(ctx);                               //3
             }
 
-            RandomAccessFile file = new RandomAccessFile(INDEX, "r");//4
-
-            HttpResponse response = new DefaultHttpResponse(request.getProtocolVersion(), HttpResponseStatus.OK);
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
-
-            boolean keepAlive = HttpHeaders.isKeepAlive(request);
-
-            if (keepAlive) {                                        //5
-                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, file.length());
-                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
-            }
-            ctx.write(response);                    //6
-
-            if (ctx.pipeline().get(SslHandler.class) == null) {     //7
-                ctx.write(new DefaultFileRegion(file.getChannel(), 0, file.length()));
-            } else {
-                ctx.write(new ChunkedNioFile(file.getChannel()));
-            }
-            ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);           //8
-            if (!keepAlive) {
-                future.addListener(ChannelFutureListener.CLOSE);        //9
-            }
-
-            file.close();
+            // 页面缓存在内存中,不打开文件
+            StaticAssetCache.DEFAULT.send(ctx, request, INDEX);     //4
         }
     }
 
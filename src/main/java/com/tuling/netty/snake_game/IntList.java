@@ -0,0 +1,78 @@
+package com.tuling.netty.snake_game;
+
+import java.util.Arrays;
+
+/**
+ * 基本类型 int 列表
+ * 用于存放格子索引等数据,避免 Integer 装箱
+ */
+public class IntList {
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(16);
+    }
+
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 4)];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size << 1);
+        }
+        values[size++] = value;
+    }
+
+    public void addAll(IntList list) {
+        if (size + list.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + list.size, size << 1));
+        }
+        System.arraycopy(list.values, 0, values, size, list.size);
+        size += list.size;
+    }
+
+    // 移除第一个等于 value 的元素,保持其余元素顺序
+    public boolean removeValue(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                System.arraycopy(values, i + 1, values, i, size - i - 1);
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 移除并返回最后一个元素
+    public int removeLast() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("size:0");
+        }
+        return values[--size];
+    }
+
+    public int get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("index:" + i + ",size:" + size);
+        }
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -11,6 +11,7 @@ public class IntegralInfo {
     private int dieIntegral = 0; // 死亡积分
     private int killIntegral = 0;// 击杀角色数
     private long lastVersion; // 对应版本
+    private int rank; // 名次,击杀数相同的名次相同
 
     public String getAccountId() {
         return accountId;
@@ -51,4 +52,12 @@ public class IntegralInfo {
     public void setLastVersion(long lastVersion) {
         this.lastVersion = lastVersion;
     }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public void setRank(int rank) {
+        this.rank = rank;
+    }
 }
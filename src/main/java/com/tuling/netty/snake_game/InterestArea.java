@@ -0,0 +1,418 @@
+package com.tuling.netty.snake_game;
+
+import com.tuling.netty.common.Allocators;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import java.util.Arrays;
+
+/**
+ * 兴趣区域
+ * 地图按 tileSize 划分为区块,每个玩家只接收以自己蛇头为中心、半径 radius 个格子的视野所覆盖的区块。
+ * 每次广播时版本变更按区块切分,每个区块的分片按协议各编码一次(文本协议编码为 JSON 数组片段),
+ * 由视野覆盖该区块的通道共享,每个通道只组装帧头与片段;
+ * 视野移入新的区块时发送该区块的快照。单个玩家的流量只与视野大小有关,与地图大小无关
+ */
+public class InterestArea {
+    // 文本协议 JSON 数组元素之间的分隔符
+    private static final ByteBuf COMMA = Unpooled.unreleasableBuffer(
+            Unpooled.copiedBuffer(",", CharsetUtil.US_ASCII));
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int radius;
+    private final int tilesX;
+    private final int tilesY;
+    // 每次广播复用的切分结果,只在房间的广播线程中使用
+    private Slices slices;
+
+    public InterestArea(int width, int height, int tileSize, int radius) {
+        if (tileSize <= 0 || radius < 0) {
+            throw new IllegalArgumentException("区块大小:" + tileSize + ",视野半径:" + radius);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.radius = radius;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * 以指定格子为中心的视野
+     */
+    public Viewport viewport(int center) {
+        int x = center % width;
+        int y = center / width;
+        return new Viewport(Math.max(0, x - radius) / tileSize, Math.max(0, y - radius) / tileSize,
+                Math.min(width - 1, x + radius) / tileSize, Math.min(height - 1, y + radius) / tileSize);
+    }
+
+    // 没有角色时的视野中心
+    public int center() {
+        return height / 2 * width + width / 2;
+    }
+
+    /**
+     * 按区块切分一个版本的变更
+     *
+     * 切分结果在每次广播中复用,下一次切分前需调用 Slices.release
+     *
+     * @param snapshot 区块快照的来源,版本需与 delta 相同
+     */
+    public Slices slice(VersionDelta delta, MapSnapshot snapshot) {
+        if (slices == null) {
+            slices = new Slices();
+        }
+        slices.reset(delta, snapshot);
+        return slices;
+    }
+
+    // 写入十进制非负整数,不生成字符串
+    private static void writeDecimal(ByteBuf buf, long value) {
+        if (value >= 10) {
+            writeDecimal(buf, value / 10);
+        }
+        buf.writeByte((int) ('0' + value % 10));
+    }
+
+    private int tileOf(int cell) {
+        return cell / width / tileSize * tilesX + cell % width / tileSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * 视野覆盖的区块矩形,含两端
+     */
+    public static class Viewport {
+        final int tx0;
+        final int ty0;
+        final int tx1;
+        final int ty1;
+
+        Viewport(int tx0, int ty0, int tx1, int ty1) {
+            this.tx0 = tx0;
+            this.ty0 = ty0;
+            this.tx1 = tx1;
+            this.ty1 = ty1;
+        }
+
+        boolean contains(int tx, int ty) {
+            return tx >= tx0 && tx <= tx1 && ty >= ty0 && ty <= ty1;
+        }
+
+        public int getTileCount() {
+            return (tx1 - tx0 + 1) * (ty1 - ty0 + 1);
+        }
+    }
+
+    /**
+     * 一次广播中按区块切分的变更,分片与快照在第一次使用时编码并缓存,
+     * 只在广播线程中使用,广播结束后需调用 release。
+     * 区块数组与格子列表在各次广播之间复用
+     */
+    public class Slices {
+        private VersionDelta delta;
+        private MapSnapshot snapshot;
+        // 每个区块变更后为蛇身、食物、空位的格子
+        private final IntList[] body;
+        private final IntList[] food;
+        private final IntList[] clear;
+        // 本次有变更的区块
+        private final IntList changedTiles = new IntList();
+        private final ByteBuf[] binarySlices;
+        private final ByteBuf[] binarySnapshots;
+        // 文本协议 cmds 与 cmdDatas 的 JSON 数组片段,不含方括号
+        private final ByteBuf[] textSliceCmds;
+        private final ByteBuf[] textSliceDatas;
+        private final ByteBuf[] textSnapshotCmds;
+        private final ByteBuf[] textSnapshotDatas;
+        // 收集区块快照时复用的格子列表
+        private final IntList tileBody = new IntList();
+        private final IntList tileFood = new IntList();
+
+        Slices() {
+            int tiles = tilesX * tilesY;
+            this.body = lists(tiles);
+            this.food = lists(tiles);
+            this.clear = lists(tiles);
+            this.binarySlices = new ByteBuf[tiles];
+            this.binarySnapshots = new ByteBuf[tiles];
+            this.textSliceCmds = new ByteBuf[tiles];
+            this.textSliceDatas = new ByteBuf[tiles];
+            this.textSnapshotCmds = new ByteBuf[tiles];
+            this.textSnapshotDatas = new ByteBuf[tiles];
+        }
+
+        private IntList[] lists(int tiles) {
+            IntList[] lists = new IntList[tiles];
+            for (int i = 0; i < tiles; i++) {
+                lists[i] = new IntList(0);
+            }
+            return lists;
+        }
+
+        void reset(VersionDelta delta, MapSnapshot snapshot) {
+            this.delta = delta;
+            this.snapshot = snapshot;
+            split(delta.getBodyNodes(), body);
+            split(delta.getFoodNodes(), food);
+            split(delta.getClearNodes(), clear);
+        }
+
+        // 格子已排序,切分后每个区块内仍为升序
+        private void split(int[] cells, IntList[] lists) {
+            for (int cell : cells) {
+                int tile = tileOf(cell);
+                if (body[tile].isEmpty() && food[tile].isEmpty() && clear[tile].isEmpty()) {
+                    changedTiles.add(tile);
+                }
+                lists[tile].add(cell);
+            }
+        }
+
+        private boolean changed(int tile) {
+            return !body[tile].isEmpty() || !food[tile].isEmpty() || !clear[tile].isEmpty();
+        }
+
+        /**
+         * 组装通道的二进制视野帧,不含蛇头分组
+         *
+         * @param from 起始版本,0 表示视野全量
+         * @param old  客户端已有的视野,为空时视野内所有区块发送快照
+         */
+        public CompositeByteBuf binaryFrame(ByteBufAllocator alloc, long from, Viewport view, Viewport old) {
+            ByteBuf header = alloc.buffer(24);
+            if (from == 0) {
+                header.writeByte(BinaryProtocol.TYPE_VIEW);
+                BinaryProtocol.writeVarint(header, delta.getVersion());
+            } else if (from == delta.getVersion()) {
+                header.writeByte(BinaryProtocol.TYPE_VERSION);
+                BinaryProtocol.writeVarint(header, delta.getVersion());
+            } else {
+                header.writeByte(BinaryProtocol.TYPE_RANGE);
+                BinaryProtocol.writeVarint(header, delta.getVersion());
+                BinaryProtocol.writeVarint(header, from);
+            }
+            BinaryProtocol.writeVarint(header, delta.getTime());
+            BinaryProtocol.writeVarint(header, width);
+            CompositeByteBuf frame = alloc.compositeBuffer(view.getTileCount() + 2);
+            frame.addComponent(true, header);
+            for (int ty = view.ty0; ty <= view.ty1; ty++) {
+                for (int tx = view.tx0; tx <= view.tx1; tx++) {
+                    int tile = ty * tilesX + tx;
+                    ByteBuf part = old != null && old.contains(tx, ty) ? binarySlice(tile) : binarySnapshot(tile);
+                    if (part.isReadable()) {
+                        frame.addComponent(true, part.retainedDuplicate());
+                    }
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * 组装通道的文本视野帧(含 version 前缀),与 VersionData 的 JSON 格式相同,参数同 binaryFrame。
+         * 区块片段共享,每个通道只编码帧头与帧尾
+         */
+        public CompositeByteBuf textFrame(ByteBufAllocator alloc, long from, Viewport view, Viewport old) {
+            CompositeByteBuf frame = alloc.compositeBuffer(view.getTileCount() * 4 + 3);
+            frame.addComponent(true, ByteBufUtil.writeAscii(alloc, "version\r\n{\"cmds\":["));
+            addArray(frame, view, old, false);
+            frame.addComponent(true, ByteBufUtil.writeAscii(alloc, "],\"cmdDatas\":["));
+            addArray(frame, view, old, true);
+            ByteBuf tail = alloc.buffer(96);
+            ByteBufUtil.writeAscii(tail, from == 0 ? "],\"full\":true" : "],\"full\":false");
+            if (from != 0 && from != delta.getVersion()) {
+                ByteBufUtil.writeAscii(tail, ",\"fromVersion\":");
+                writeDecimal(tail, from);
+            }
+            ByteBufUtil.writeAscii(tail, ",\"time\":");
+            writeDecimal(tail, delta.getTime());
+            ByteBufUtil.writeAscii(tail, ",\"version\":");
+            writeDecimal(tail, delta.getVersion());
+            tail.writeByte('}');
+            frame.addComponent(true, tail);
+            return frame;
+        }
+
+        // 依次追加视野内各区块的数组片段,片段之间以逗号分隔
+        private void addArray(CompositeByteBuf frame, Viewport view, Viewport old, boolean datas) {
+            boolean first = true;
+            for (int ty = view.ty0; ty <= view.ty1; ty++) {
+                for (int tx = view.tx0; tx <= view.tx1; tx++) {
+                    int tile = ty * tilesX + tx;
+                    boolean slice = old != null && old.contains(tx, ty);
+                    if (slice) {
+                        textSlice(tile);
+                    } else {
+                        textSnapshot(tile);
+                    }
+                    ByteBuf fragment = slice ? (datas ? textSliceDatas[tile] : textSliceCmds[tile])
+                            : (datas ? textSnapshotDatas[tile] : textSnapshotCmds[tile]);
+                    if (!fragment.isReadable()) {
+                        continue;
+                    }
+                    if (!first) {
+                        frame.addComponent(true, COMMA.duplicate());
+                    }
+                    frame.addComponent(true, fragment.retainedDuplicate());
+                    first = false;
+                }
+            }
+        }
+
+        private ByteBuf binarySlice(int tile) {
+            if (binarySlices[tile] == null) {
+                if (!changed(tile)) {
+                    binarySlices[tile] = Unpooled.EMPTY_BUFFER;
+                } else {
+                    ByteBuf buf = Allocators.allocator().buffer();
+                    BinaryProtocol.writeGroup(buf, BinaryProtocol.OP_BODY, body[tile]);
+                    BinaryProtocol.writeGroup(buf, BinaryProtocol.OP_FOOD, food[tile]);
+                    BinaryProtocol.writeGroup(buf, BinaryProtocol.OP_CLEAR, clear[tile]);
+                    binarySlices[tile] = buf;
+                }
+            }
+            return binarySlices[tile];
+        }
+
+        private ByteBuf binarySnapshot(int tile) {
+            if (binarySnapshots[tile] == null) {
+                collect(tile);
+                ByteBuf buf = Allocators.allocator().buffer();
+                BinaryProtocol.writeArea(buf, tileX(tile), tileY(tile), tileWidth(tile), tileHeight(tile));
+                BinaryProtocol.writeGroup(buf, BinaryProtocol.OP_BODY, tileBody);
+                BinaryProtocol.writeGroup(buf, BinaryProtocol.OP_FOOD, tileFood);
+                binarySnapshots[tile] = buf;
+            }
+            return binarySnapshots[tile];
+        }
+
+        private void textSlice(int tile) {
+            if (textSliceCmds[tile] == null) {
+                if (!changed(tile)) {
+                    textSliceCmds[tile] = Unpooled.EMPTY_BUFFER;
+                    textSliceDatas[tile] = Unpooled.EMPTY_BUFFER;
+                    return;
+                }
+                ByteBuf cmds = Allocators.allocator().buffer();
+                ByteBuf datas = Allocators.allocator().buffer();
+                appendCells(cmds, datas, "Green", body[tile]);
+                appendCells(cmds, datas, "Yellow", food[tile]);
+                appendCells(cmds, datas, "Black", clear[tile]);
+                textSliceCmds[tile] = cmds;
+                textSliceDatas[tile] = datas;
+            }
+        }
+
+        private void textSnapshot(int tile) {
+            if (textSnapshotCmds[tile] == null) {
+                collect(tile);
+                ByteBuf cmds = Allocators.allocator().buffer();
+                ByteBuf datas = Allocators.allocator().buffer();
+                ByteBufUtil.writeAscii(cmds, "\"Area\"");
+                datas.writeByte('"');
+                writeDecimal(datas, tileX(tile));
+                datas.writeByte(',');
+                writeDecimal(datas, tileY(tile));
+                datas.writeByte(',');
+                writeDecimal(datas, tileWidth(tile));
+                datas.writeByte(',');
+                writeDecimal(datas, tileHeight(tile));
+                datas.writeByte('"');
+                appendCells(cmds, datas, "Green", tileBody);
+                appendCells(cmds, datas, "Yellow", tileFood);
+                textSnapshotCmds[tile] = cmds;
+                textSnapshotDatas[tile] = datas;
+            }
+        }
+
+        /**
+         * 追加一组命令与命令数据,编码为 JSON 字符串数组元素,内容只含字母、数字与逗号,无需转义
+         */
+        private void appendCells(ByteBuf cmds, ByteBuf datas, String cmd, IntList cells) {
+            if (cells.isEmpty()) {
+                return;
+            }
+            if (cmds.isReadable()) {
+                cmds.writeByte(',');
+                datas.writeByte(',');
+            }
+            cmds.writeByte('"');
+            ByteBufUtil.writeAscii(cmds, cmd);
+            cmds.writeByte('"');
+            datas.writeByte('"');
+            for (int i = 0; i < cells.size(); i++) {
+                if (i > 0) {
+                    datas.writeByte(',');
+                }
+                writeDecimal(datas, cells.get(i) % width);
+                datas.writeByte(',');
+                writeDecimal(datas, cells.get(i) / width);
+            }
+            datas.writeByte('"');
+        }
+
+        // 收集区块内的格子到 tileBody 与 tileFood
+        private void collect(int tile) {
+            tileBody.clear();
+            tileFood.clear();
+            snapshot.collect(tileX(tile), tileY(tile), tileWidth(tile), tileHeight(tile), tileBody, tileFood);
+        }
+
+        private int tileX(int tile) {
+            return tile % tilesX * tileSize;
+        }
+
+        private int tileY(int tile) {
+            return tile / tilesX * tileSize;
+        }
+
+        private int tileWidth(int tile) {
+            return Math.min(tileSize, width - tileX(tile));
+        }
+
+        private int tileHeight(int tile) {
+            return Math.min(tileSize, height - tileY(tile));
+        }
+
+        // 释放本次广播编码的分片并清空切分结果
+        public void release() {
+            release(binarySlices);
+            release(binarySnapshots);
+            release(textSliceCmds);
+            release(textSliceDatas);
+            release(textSnapshotCmds);
+            release(textSnapshotDatas);
+            for (int i = 0; i < changedTiles.size(); i++) {
+                int tile = changedTiles.get(i);
+                body[tile].clear();
+                food[tile].clear();
+                clear[tile].clear();
+            }
+            changedTiles.clear();
+            delta = null;
+            snapshot = null;
+        }
+
+        private void release(ByteBuf[] bufs) {
+            for (int i = 0; i < bufs.length; i++) {
+                if (bufs[i] != null) {
+                    bufs[i].release();
+                }
+            }
+            Arrays.fill(bufs, null);
+        }
+    }
+}
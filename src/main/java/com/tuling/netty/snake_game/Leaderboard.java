@@ -0,0 +1,126 @@
+package com.tuling.netty.snake_game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 积分排行榜
+ * 角色按击杀数从高到低、同分按角色ID排序存放在有序集合中,只在加入、离开与击杀时更新,
+ * 前 K 名直接从集合头部读取。另外按击杀数维护一个树状数组计数,
+ * 任意角色的名次(比其击杀数高的角色数 + 1)在 O(log n) 内求出。
+ * 模拟阶段写入,IO 线程与广播阶段读取,所有方法同步执行
+ */
+public class Leaderboard {
+    private final TreeSet<SnakeEntity> ranking = new TreeSet<>(new Comparator<SnakeEntity>() {
+        @Override
+        public int compare(SnakeEntity o1, SnakeEntity o2) {
+            if (o1.getKillIntegral() != o2.getKillIntegral()) {
+                return o2.getKillIntegral() > o1.getKillIntegral() ? 1 : -1;
+            }
+            return o1.getId() < o2.getId() ? -1 : (o1.getId() == o2.getId() ? 0 : 1);
+        }
+    });
+    // 各击杀数的角色数
+    private int[] counts = new int[64];
+    // 树状数组:下标为击杀数 + 1
+    private int[] tree = new int[65];
+
+    public synchronized void add(SnakeEntity snake) {
+        if (ranking.add(snake)) {
+            update(snake.getKillIntegral(), 1);
+        }
+    }
+
+    public synchronized void remove(SnakeEntity snake) {
+        if (ranking.remove(snake)) {
+            update(snake.getKillIntegral(), -1);
+        }
+    }
+
+    /**
+     * 增加角色击杀数,不在排行榜中的角色(如已被替换)只增加击杀数
+     *
+     * @return 新的击杀数
+     */
+    public synchronized int addKill(SnakeEntity snake) {
+        // 先按原击杀数移除,再按新击杀数加入
+        boolean ranked = ranking.remove(snake);
+        if (ranked) {
+            update(snake.getKillIntegral(), -1);
+        }
+        int kills = snake.addKillIntegral();
+        if (ranked) {
+            ranking.add(snake);
+            update(kills, 1);
+        }
+        return kills;
+    }
+
+    /**
+     * 前 k 名角色
+     */
+    public synchronized List<SnakeEntity> top(int k) {
+        List<SnakeEntity> result = new ArrayList<>(k);
+        Iterator<SnakeEntity> iterator = ranking.iterator();
+        while (iterator.hasNext() && result.size() < k) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    /**
+     * 角色名次,击杀数相同的角色名次相同
+     *
+     * @return 从 1 开始的名次
+     */
+    public synchronized int rank(SnakeEntity snake) {
+        // 击杀数不超过 kills 的角色数
+        int kills = snake.getKillIntegral();
+        int notAbove = kills < counts.length ? sum(kills + 1) : ranking.size();
+        return ranking.size() - notAbove + 1;
+    }
+
+    public synchronized int size() {
+        return ranking.size();
+    }
+
+    private void update(int kills, int delta) {
+        if (kills >= counts.length) {
+            grow(kills);
+        }
+        counts[kills] += delta;
+        for (int i = kills + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    // 前缀和:击杀数小于 i 的角色数
+    private int sum(int i) {
+        int s = 0;
+        for (; i > 0; i -= i & -i) {
+            s += tree[i];
+        }
+        return s;
+    }
+
+    // 扩容后按各击杀数的角色数重建树状数组
+    private void grow(int kills) {
+        int length = counts.length;
+        while (length <= kills) {
+            length *= 2;
+        }
+        counts = Arrays.copyOf(counts, length);
+        tree = new int[length + 1];
+        for (int i = 1; i <= length; i++) {
+            tree[i] += counts[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.tuling.netty.snake_game;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 地图网格
+ * 每一种标记单独存放在一个基本类型数组(图层)中,格子索引为 y * width + x,
+ * 大地图下不再为每个格子创建对象,扫描时按内存顺序连续访问
+ * <p>
+ * 地图按行切分为若干条带(区域),空位列表按区域分别维护,重叠归属表按格子存放,
+ * 修改某个格子只会触及该格子所在区域的数据,因此不同区域可以由不同线程同时修改。
+ * 各区域的空格子数另外汇总在树状数组中,随机取空位时在 O(log 区域数) 内定位区域,
+ * 树状数组只做原子加减,不同区域并发修改后的结果与依次修改一致
+ */
+public class MapGrid {
+    // 地图外的位点,蛇头撞出边界时使用
+    public static final int OUTSIDE = -1;
+    // 格子上没有角色
+    public static final int NO_OWNER = -1;
+    // 默认区域行数
+    public static final int DEFAULT_REGION_ROWS = 64;
+
+    private final int width;
+    private final int height;
+    // 蛇身图层:格子上的蛇身节点数
+    private final short[] snakeNodes;
+    // 食物图层:格子上的食物类型,0 表示没有食物
+    private final byte[] foodNodes;
+    // 归属图层:格子上唯一蛇身节点所属角色的ID
+    private final int[] owners;
+    // 每个区域的格子数
+    private final int regionSize;
+    private final int regionCount;
+    // 多个蛇身节点重叠(如相撞)时,按加入顺序记录格子上所有角色ID,按格子索引存放,
+    // 列表在第一次重叠时创建,之后清空复用
+    private final IntList[] overflowOwners;
+    // 空位列表:区域 r 的空格子存放在 [r * regionSize, r * regionSize + regionFreeCount[r]) 中,顺序无意义
+    private final int[] freeCells;
+    // 空格子在 freeCells 中的位置,非空格子为 -1
+    private final int[] freePositions;
+    private final int[] regionFreeCount;
+    // 区域空格子数的树状数组,下标为区域 + 1
+    private final AtomicIntegerArray freeTree;
+
+    public MapGrid(int width, int height) {
+        this(width, height, DEFAULT_REGION_ROWS);
+    }
+
+    /**
+     * @param regionRows 每个区域的行数
+     */
+    public MapGrid(int width, int height, int regionRows) {
+        this.width = width;
+        this.height = height;
+        this.snakeNodes = new short[width * height];
+        this.foodNodes = new byte[width * height];
+        this.owners = new int[width * height];
+        Arrays.fill(owners, NO_OWNER);
+        regionRows = Math.max(1, Math.min(regionRows, height));
+        this.regionSize = regionRows * width;
+        this.regionCount = (height + regionRows - 1) / regionRows;
+        this.overflowOwners = new IntList[width * height];
+        this.regionFreeCount = new int[regionCount];
+        for (int r = 0; r < regionCount; r++) {
+            regionFreeCount[r] = getRegionEnd(r) - getRegionStart(r);
+        }
+        this.freeTree = new AtomicIntegerArray(regionCount + 1);
+        for (int i = 1; i <= regionCount; i++) {
+            freeTree.addAndGet(i, regionFreeCount[i - 1]);
+            int parent = i + (i & -i);
+            if (parent <= regionCount) {
+                freeTree.addAndGet(parent, freeTree.get(i));
+            }
+        }
+        this.freeCells = new int[width * height];
+        this.freePositions = new int[width * height];
+        for (int i = 0; i < freeCells.length; i++) {
+            freeCells[i] = i;
+            freePositions[i] = i;
+        }
+    }
+
+    /**
+     * 坐标转换为格子索引,调用方需先确认坐标在地图范围内
+     */
+    public int index(int y, int x) {
+        return y * width + x;
+    }
+
+    public int getX(int index) {
+        return index % width;
+    }
+
+    public int getY(int index) {
+        return index / width;
+    }
+
+    /**
+     * 是否在地图边界内？
+     */
+    public boolean isRange(int y, int x) {
+        return y >= 0 && y < height && x >= 0 && x < width;
+    }
+
+    // 格子所在区域
+    public int getRegion(int index) {
+        return index / regionSize;
+    }
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    // 区域第一个格子索引
+    public int getRegionStart(int region) {
+        return region * regionSize;
+    }
+
+    // 区域最后一个格子索引 + 1
+    public int getRegionEnd(int region) {
+        return Math.min((region + 1) * regionSize, snakeNodes.length);
+    }
+
+    public int getSnakeNodes(int index) {
+        return snakeNodes[index];
+    }
+
+    /**
+     * 添加蛇身节点
+     *
+     * @param owner 节点所属角色ID
+     */
+    public void addSnakeNode(int index, int owner) {
+        int count = snakeNodes[index];
+        if (count == 0) {
+            owners[index] = owner;
+        } else {
+            IntList list = overflowOwners[index];
+            if (list == null) {
+                list = overflowOwners[index] = new IntList(4);
+            }
+            if (count == 1) {
+                list.add(owners[index]);
+            }
+            list.add(owner);
+        }
+        if (count == 0 && foodNodes[index] <= 0) {
+            removeFree(index);
+        }
+        snakeNodes[index]++;
+    }
+
+    public void removeSnakeNode(int index, int owner) {
+        int count = snakeNodes[index];
+        if (count == 1) {
+            owners[index] = NO_OWNER;
+        } else if (count > 1) {
+            IntList list = overflowOwners[index];
+            list.removeValue(owner);
+            if (list.size() == 1) {
+                owners[index] = list.get(0);
+                list.clear();
+            }
+        }
+        snakeNodes[index]--;
+        if (isEmpty(index)) {
+            addFree(index);
+        }
+    }
+
+    /**
+     * 获取格子上第 i 个蛇身节点所属角色ID
+     *
+     * @param i 0 到 getSnakeNodes(index)-1
+     */
+    public int getOwner(int index, int i) {
+        if (snakeNodes[index] > 1) {
+            return overflowOwners[index].get(i);
+        }
+        if (i != 0 || snakeNodes[index] == 0) {
+            throw new IndexOutOfBoundsException("index:" + i + ",nodes:" + snakeNodes[index]);
+        }
+        return owners[index];
+    }
+
+    public int getFood(int index) {
+        return foodNodes[index];
+    }
+
+    public void setFood(int index, int type) {
+        boolean empty = isEmpty(index);
+        foodNodes[index] = (byte) type;
+        if (empty && !isEmpty(index)) {
+            removeFree(index);
+        } else if (!empty && isEmpty(index)) {
+            addFree(index);
+        }
+    }
+
+    /**
+     * 随机获取一个空格子
+     *
+     * @return 格子索引,地图已满时返回 OUTSIDE
+     */
+    public int randomFreeCell(Random random) {
+        int freeCount = getFreeCount();
+        if (freeCount == 0) {
+            return OUTSIDE;
+        }
+        int n = random.nextInt(freeCount);
+        // 在树状数组中查找第 n 个空格子所在区域
+        int region = 0;
+        for (int bit = Integer.highestOneBit(regionCount); bit > 0; bit >>= 1) {
+            int next = region + bit;
+            if (next <= regionCount && freeTree.get(next) <= n) {
+                region = next;
+                n -= freeTree.get(next);
+            }
+        }
+        return freeCells[getRegionStart(region) + n];
+    }
+
+    // 当前空格子数量
+    public int getFreeCount() {
+        int freeCount = 0;
+        for (int i = regionCount; i > 0; i -= i & -i) {
+            freeCount += freeTree.get(i);
+        }
+        return freeCount;
+    }
+
+    private void updateFree(int region, int delta) {
+        for (int i = region + 1; i <= regionCount; i += i & -i) {
+            freeTree.addAndGet(i, delta);
+        }
+    }
+
+    private void addFree(int index) {
+        if (freePositions[index] >= 0) {
+            return;
+        }
+        int region = getRegion(index);
+        int position = getRegionStart(region) + regionFreeCount[region]++;
+        freeCells[position] = index;
+        freePositions[index] = position;
+        updateFree(region, 1);
+    }
+
+    // 与区域内最后一个空位交换后移除
+    private void removeFree(int index) {
+        int position = freePositions[index];
+        if (position < 0) {
+            return;
+        }
+        int region = getRegion(index);
+        int last = freeCells[getRegionStart(region) + --regionFreeCount[region]];
+        freeCells[position] = last;
+        freePositions[last] = position;
+        freePositions[index] = -1;
+        updateFree(region, -1);
+    }
+
+    public boolean isEmpty(int index) {
+        return snakeNodes[index] <= 0 && foodNodes[index] <= 0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // 格子总数
+    public int size() {
+        return snakeNodes.length;
+    }
+}
@@ -0,0 +1,232 @@
+package com.tuling.netty.snake_game;
+
+import com.alibaba.fastjson.JSON;
+import com.tuling.netty.common.Allocators;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 全量地图快照
+ * 在编码阶段按每个版本的变更增量维护,不再在每次构建后扫描整个地图。
+ * 全量数据只在有客户端请求时编码,每个版本最多编码一次并缓存。
+ * 编码阶段写入,IO 线程读取,所有方法同步执行
+ */
+public class MapSnapshot {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // 格子内容
+    public static final byte EMPTY = 0;
+    public static final byte BODY = 1;
+    public static final byte FOOD = 2;
+
+    private final int width;
+    private final int height;
+    private final byte[] cells;
+    private long version;
+    private long time;
+    // 当前版本已编码的全量数据,版本变更后失效
+    private VersionData versionData;
+    private byte[] textFrame;
+    private byte[] binaryFrame;
+
+    public MapSnapshot(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.cells = new byte[width * height];
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * 应用一个版本的变更,版本需连续
+     */
+    public synchronized void apply(VersionDelta delta) {
+        fill(delta.getBodyNodes(), BODY);
+        fill(delta.getFoodNodes(), FOOD);
+        fill(delta.getClearNodes(), EMPTY);
+        version = delta.getVersion();
+        time = delta.getTime();
+        versionData = null;
+        textFrame = null;
+        binaryFrame = null;
+    }
+
+    private void fill(int[] nodes, byte kind) {
+        for (int node : nodes) {
+            cells[node] = kind;
+        }
+    }
+
+    /**
+     * 当前版本的全量数据
+     */
+    public synchronized VersionData getVersionData() {
+        if (versionData == null) {
+            versionData = encode();
+        }
+        return versionData;
+    }
+
+    /**
+     * 当前版本的全量文本帧内容(含 version 前缀)
+     */
+    public synchronized byte[] getTextFrame() {
+        if (textFrame == null) {
+            textFrame = ("version\r\n" + JSON.toJSONString(getVersionData())).getBytes(UTF_8);
+        }
+        return textFrame;
+    }
+
+    /**
+     * 当前版本的二进制全量帧内容,格式见 BinaryProtocol
+     */
+    public synchronized byte[] getBinaryFrame() {
+        if (binaryFrame == null) {
+            ByteBuf buf = Allocators.allocator().heapBuffer(64);
+            try {
+                writeBinary(buf);
+                binaryFrame = new byte[buf.readableBytes()];
+                buf.readBytes(binaryFrame);
+            } finally {
+                buf.release();
+            }
+        }
+        return binaryFrame;
+    }
+
+    /**
+     * 按行程编码写入二进制全量数据:每个图层记录连续格子段,
+     * 每段为 与上一段结尾之间的空位数 + 段长度
+     */
+    public synchronized void writeBinary(ByteBuf out) {
+        out.writeByte(BinaryProtocol.TYPE_SNAPSHOT);
+        BinaryProtocol.writeVarint(out, version);
+        BinaryProtocol.writeVarint(out, time);
+        BinaryProtocol.writeVarint(out, width);
+        BinaryProtocol.writeVarint(out, height);
+        writeRuns(out, BinaryProtocol.OP_BODY, BODY);
+        writeRuns(out, BinaryProtocol.OP_FOOD, FOOD);
+    }
+
+    private void writeRuns(ByteBuf out, byte op, byte kind) {
+        int runs = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == kind && (i == 0 || cells[i - 1] != kind)) {
+                runs++;
+            }
+        }
+        if (runs == 0) {
+            return;
+        }
+        out.writeByte(op);
+        BinaryProtocol.writeVarint(out, runs);
+        int end = 0;
+        for (int i = 0; i < cells.length; ) {
+            if (cells[i] != kind) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < cells.length && cells[i] == kind) {
+                i++;
+            }
+            BinaryProtocol.writeVarint(out, start - end);
+            BinaryProtocol.writeVarint(out, i - start);
+            end = i;
+        }
+    }
+
+    /**
+     * 解码二进制全量数据,供测试与客户端实现参考
+     */
+    public static MapSnapshot readBinary(ByteBuf in) {
+        if (in.readByte() != BinaryProtocol.TYPE_SNAPSHOT) {
+            throw new IllegalArgumentException("不是全量数据");
+        }
+        long version = BinaryProtocol.readVarint(in);
+        long time = BinaryProtocol.readVarint(in);
+        MapSnapshot snapshot = new MapSnapshot((int) BinaryProtocol.readVarint(in), (int) BinaryProtocol.readVarint(in));
+        snapshot.version = version;
+        snapshot.time = time;
+        while (in.isReadable()) {
+            byte kind = in.readByte() == BinaryProtocol.OP_BODY ? BODY : FOOD;
+            long runs = BinaryProtocol.readVarint(in);
+            int position = 0;
+            for (long r = 0; r < runs; r++) {
+                position += (int) BinaryProtocol.readVarint(in);
+                int length = (int) BinaryProtocol.readVarint(in);
+                for (int i = 0; i < length; i++) {
+                    snapshot.cells[position++] = kind;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * 收集矩形区域内的蛇身与食物格子,按格子索引升序
+     */
+    public synchronized void collect(int x, int y, int w, int h, IntList body, IntList food) {
+        for (int row = y; row < y + h; row++) {
+            for (int i = row * width + x, end = i + w; i < end; i++) {
+                if (cells[i] == BODY) {
+                    body.add(i);
+                } else if (cells[i] == FOOD) {
+                    food.add(i);
+                }
+            }
+        }
+    }
+
+    public synchronized byte getCell(int index) {
+        return cells[index];
+    }
+
+    // 构建当前地图所有的像素
+    private VersionData encode() {
+        StringBuilder body = new StringBuilder();
+        StringBuilder food = new StringBuilder();
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == BODY) {
+                body.append(',').append(i % width).append(',').append(i / width);
+            } else if (cells[i] == FOOD) {
+                food.append(',').append(i % width).append(',').append(i / width);
+            }
+        }
+        List<String> cmds = new ArrayList<>();
+        List<String> cmdDatas = new ArrayList<>();
+        // 去掉前缀 中的逗号
+        if (body.length() > 0) {
+            body.deleteCharAt(0);
+            cmds.add("Green");
+            cmdDatas.add(body.toString());
+        }
+        if (food.length() > 0) {
+            food.deleteCharAt(0);
+            cmds.add("Yellow");
+            cmdDatas.add(food.toString());
+        }
+        VersionData vd = new VersionData(version, time);
+        vd.setCmds(cmds.toArray(new String[cmds.size()]));
+        vd.setCmdDatas(cmdDatas.toArray(new String[cmdDatas.size()]));
+        vd.setFull(true);
+        return vd;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized long getTime() {
+        return time;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
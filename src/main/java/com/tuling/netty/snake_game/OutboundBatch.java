@@ -0,0 +1,137 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 一次广播的出站批量写
+ * 广播中发往同一通道的版本变更、状态、事件等帧先暂存,通道按所属 EventLoop 分组,
+ * 广播结束时每个 EventLoop 只提交一个任务,在 EventLoop 内依次写出其所有通道的帧并各刷新一次,
+ * 每次广播的跨线程提交数为 IO 线程数而不是通道数。
+ * 只在广播线程中使用,非线程安全
+ */
+final class OutboundBatch {
+    private final Map<Channel, Pending> pending = new HashMap<>();
+    private final Map<EventLoop, LoopTask> loops = new LinkedHashMap<>();
+
+    void write(Channel channel, Object msg) {
+        write(channel, msg, null);
+    }
+
+    /**
+     * @param listener 写出完成的监听,可为空
+     */
+    void write(Channel channel, Object msg, ChannelFutureListener listener) {
+        Pending batch = pending.get(channel);
+        if (batch == null) {
+            batch = new Pending(channel);
+            pending.put(channel, batch);
+            EventLoop loop = channel.eventLoop();
+            LoopTask task = loops.get(loop);
+            if (task == null) {
+                task = new LoopTask(loop);
+                loops.put(loop, task);
+            }
+            task.channels.add(batch);
+        }
+        batch.add(msg, listener);
+    }
+
+    // 暂存的通道数
+    int size() {
+        return pending.size();
+    }
+
+    // 涉及的 EventLoop 数
+    int loopCount() {
+        return loops.size();
+    }
+
+    /**
+     * 提交本次广播暂存的所有帧,每个 EventLoop 一个任务
+     */
+    void flush() {
+        if (loops.isEmpty()) {
+            return;
+        }
+        for (LoopTask task : loops.values()) {
+            task.submit();
+        }
+        loops.clear();
+        pending.clear();
+    }
+
+    // 一个 EventLoop 上各通道的写出任务
+    private static final class LoopTask implements Runnable {
+        private final EventLoop loop;
+        private final List<Pending> channels = new ArrayList<>();
+
+        LoopTask(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        void submit() {
+            if (loop.inEventLoop()) {
+                run();
+                return;
+            }
+            try {
+                loop.execute(this);
+            } catch (RejectedExecutionException e) {
+                // EventLoop 已关闭 帧无法写出
+                for (Pending batch : channels) {
+                    batch.release();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            for (Pending batch : channels) {
+                batch.writeAndFlush();
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final Channel channel;
+        private final List<Object> messages = new ArrayList<>(4);
+        private final List<ChannelFutureListener> listeners = new ArrayList<>(4);
+
+        Pending(Channel channel) {
+            this.channel = channel;
+        }
+
+        void add(Object msg, ChannelFutureListener listener) {
+            messages.add(msg);
+            listeners.add(listener);
+        }
+
+        void release() {
+            for (Object msg : messages) {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        void writeAndFlush() {
+            for (int i = 0; i < messages.size(); i++) {
+                ChannelFutureListener listener = listeners.get(i);
+                if (listener == null) {
+                    channel.write(messages.get(i), channel.voidPromise());
+                } else {
+                    channel.write(messages.get(i)).addListener(listener);
+                }
+            }
+            channel.flush();
+        }
+    }
+}
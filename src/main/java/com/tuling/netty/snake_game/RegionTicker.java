@@ -0,0 +1,230 @@
+package com.tuling.netty.snake_game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * 分区域地图构建
+ * 一次构建拆分为三个阶段,每个阶段内的任务互不干扰,可以在 ForkJoinPool 中并行执行:
+ * <ol>
+ * <li>推进角色:按角色ID分段,每个角色只由一个任务推进,产生的地图修改按目标区域分桶</li>
+ * <li>更新地图:按区域执行,依次取出各分段对应桶中的修改写入地图</li>
+ * <li>碰撞规则:按区域检查新增节点是否撞击蛇身或吃到食物,结果按区域记录</li>
+ * </ol>
+ * 同一个格子上的修改始终按(角色ID, 角色内顺序)执行,与分段数量和线程数无关,
+ * 未指定线程池时在当前线程依次执行全部任务,结果与并行执行完全一致
+ */
+class RegionTicker {
+    private final MapGrid grid;
+    // 按ID索引的全部角色,空闲的ID为空
+    private final List<SnakeEntity> snakes;
+    private final ForkJoinPool pool;
+    private final int chunkCount;
+    private final int regionCount;
+    // 本次构建参与分段的角色数
+    private int snakeCount;
+
+    // [分段][区域] 地图修改,每两个元素为一组: 新增节点为格子索引,移除节点为 ~格子索引;所属角色ID
+    private final IntList[][] changes;
+    // [分段] 本次清除的死亡角色ID
+    private final IntList[] diedSnakes;
+    // [区域] 进食结果,每两个元素为一组: 角色ID,格子索引
+    private final IntList[] eats;
+    // [区域] 撞击结果,每两个元素为一组: 死亡角色ID,击杀者ID(不存在时为 NO_OWNER)
+    private final IntList[] collisions;
+
+    private final List<Callable<Void>> stepTasks = new ArrayList<>();
+    private final List<Callable<Void>> applyTasks = new ArrayList<>();
+    private final List<Callable<Void>> collideTasks = new ArrayList<>();
+
+    /**
+     * @param pool 并行线程池,为空时在当前线程执行
+     */
+    RegionTicker(MapGrid grid, List<SnakeEntity> snakes, ForkJoinPool pool) {
+        this.grid = grid;
+        this.snakes = snakes;
+        this.pool = pool;
+        this.chunkCount = pool == null ? 1 : pool.getParallelism() * 4;
+        this.regionCount = grid.getRegionCount();
+        changes = new IntList[chunkCount][regionCount];
+        diedSnakes = new IntList[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            for (int r = 0; r < regionCount; r++) {
+                changes[c][r] = new IntList();
+            }
+            diedSnakes[c] = new IntList();
+            final int chunk = c;
+            stepTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    step(chunk);
+                    return null;
+                }
+            });
+        }
+        eats = new IntList[regionCount];
+        collisions = new IntList[regionCount];
+        for (int r = 0; r < regionCount; r++) {
+            eats[r] = new IntList();
+            collisions[r] = new IntList();
+            final int region = r;
+            applyTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    apply(region);
+                    return null;
+                }
+            });
+            collideTasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    collide(region);
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * 执行推进角色、更新地图、碰撞规则三个阶段,结果通过 getDiedSnakes/getEats/getCollisions 获取
+     */
+    void tick() {
+        snakeCount = snakes.size();
+        runAll(stepTasks);
+        runAll(applyTasks);
+        runAll(collideTasks);
+    }
+
+    // 推进一个分段内的角色
+    private void step(int chunk) {
+        IntList[] regionChanges = changes[chunk];
+        for (IntList list : regionChanges) {
+            list.clear();
+        }
+        diedSnakes[chunk].clear();
+        int from = (int) ((long) snakeCount * chunk / chunkCount);
+        int to = (int) ((long) snakeCount * (chunk + 1) / chunkCount);
+        for (int id = from; id < to; id++) {
+            SnakeEntity snake = snakes.get(id);
+            if (snake == null) { // 空闲的角色ID
+                continue;
+            }
+            if (snake.step()) {
+                diedSnakes[chunk].add(id);
+            }
+            IntList nodes = snake.getRemoveNodes();
+            for (int i = 0; i < nodes.size(); i++) {
+                IntList list = regionChanges[grid.getRegion(nodes.get(i))];
+                list.add(~nodes.get(i));
+                list.add(id);
+            }
+            nodes = snake.getAddNodes();
+            for (int i = 0; i < nodes.size(); i++) {
+                IntList list = regionChanges[grid.getRegion(nodes.get(i))];
+                list.add(nodes.get(i));
+                list.add(id);
+            }
+        }
+    }
+
+    // 把各分段中属于该区域的修改写入地图
+    private void apply(int region) {
+        for (int c = 0; c < chunkCount; c++) {
+            IntList list = changes[c][region];
+            for (int i = 0; i < list.size(); i += 2) {
+                int node = list.get(i);
+                if (node >= 0) {
+                    grid.addSnakeNode(node, list.get(i + 1));
+                } else {
+                    grid.removeSnakeNode(~node, list.get(i + 1));
+                }
+            }
+        }
+    }
+
+    // 检查该区域内的新增节点
+    private void collide(int region) {
+        IntList regionEats = eats[region];
+        IntList regionCollisions = collisions[region];
+        regionEats.clear();
+        regionCollisions.clear();
+        for (int c = 0; c < chunkCount; c++) {
+            IntList list = changes[c][region];
+            for (int i = 0; i < list.size(); i += 2) {
+                int node = list.get(i);
+                if (node < 0) {
+                    continue;
+                }
+                int id = list.get(i + 1);
+                if (grid.getSnakeNodes(node) > 1) { // 是否撞击蛇身
+                    regionCollisions.add(id);
+                    regionCollisions.add(findKiller(id, node));
+                } else if (grid.getFood(node) > 0) {// 吃掉食物
+                    grid.setFood(node, 0);// 清除地图中食物标记状态
+                    regionEats.add(id);
+                    regionEats.add(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从归属图层找出击杀点位下的角色,排除角色自身以及同样以该点位为蛇头的角色
+     */
+    private int findKiller(int dieId, int killPoint) {
+        for (int i = 0, n = grid.getSnakeNodes(killPoint); i < n; i++) {
+            int owner = grid.getOwner(killPoint, i);
+            if (owner == dieId)
+                continue;
+            if (killPoint == snakes.get(owner).getHead())
+                continue;
+            return owner;
+        }
+        return MapGrid.NO_OWNER;
+    }
+
+    private void runAll(List<Callable<Void>> tasks) {
+        try {
+            if (pool == null) {
+                for (Callable<Void> task : tasks) {
+                    task.call();
+                }
+            } else {
+                for (Future<Void> future : pool.invokeAll(tasks)) {
+                    future.get();
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("分区域构建失败", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("分区域构建被中断", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("分区域构建失败", e);
+        }
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    IntList getDiedSnakes(int chunk) {
+        return diedSnakes[chunk];
+    }
+
+    int getRegionCount() {
+        return regionCount;
+    }
+
+    IntList getEats(int region) {
+        return eats[region];
+    }
+
+    IntList getCollisions(int region) {
+        return collisions[region];
+    }
+}
@@ -0,0 +1,65 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.channel.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 慢消费者策略
+ * 通道出站缓冲超过高水位(不可写)时,广播不再向其写入版本变更、状态与事件,出站缓冲不会无限增长。
+ * COALESCE:恢复可写后补发期间合并的变更,历史不足时发送全量;
+ * DROP:丢弃期间的变更,恢复可写后发送全量。
+ * 两种模式下期间发给该通道的定向事件(如死亡)都会暂存,恢复可写后补发。
+ * 持续不可写超过 timeout 毫秒的通道视为长期过慢,主动断开
+ */
+public class SlowConsumerPolicy {
+    static final Logger logger = LoggerFactory.getLogger(SlowConsumerPolicy.class);
+
+    public enum Mode {
+        COALESCE, DROP
+    }
+
+    public static final SlowConsumerPolicy DEFAULT = new SlowConsumerPolicy(Mode.COALESCE, 10000);
+
+    private final Mode mode;
+    private final long timeout;
+
+    /**
+     * @param timeout 持续不可写多少毫秒后断开,0 表示不断开
+     */
+    public SlowConsumerPolicy(Mode mode, long timeout) {
+        this.mode = mode;
+        this.timeout = timeout;
+    }
+
+    /**
+     * 广播版本变更前检查通道
+     *
+     * @return 是否可以写入
+     */
+    boolean check(Channel channel, ChannelSyncState sync, long now) {
+        if (channel.isWritable()) {
+            if (sync.drained() && mode == Mode.DROP) {
+                // 期间的变更已丢弃 重新发送全量
+                sync.resync(0);
+            }
+            return true;
+        }
+        long since = sync.stalled(now);
+        if (timeout > 0 && now - since > timeout && channel.isOpen()) {
+            // 出站缓冲只能在 EventLoop 中访问,这里只读取线程安全的可写字节数
+            logger.warn("Client:{} 持续 {}ms 不可写,恢复可写还需发送 {} 字节,断开连接",
+                    channel.remoteAddress(), now - since, channel.bytesBeforeWritable());
+            channel.close();
+        }
+        return false;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+}
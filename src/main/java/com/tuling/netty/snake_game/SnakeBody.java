@@ -0,0 +1,109 @@
+package com.tuling.netty.snake_game;
+
+import java.util.NoSuchElementException;
+
+/**
+ * 蛇身节点
+ * 基于环形数组存放格子索引(y * width + x),下标 0 为蛇头,
+ * 头部添加与尾部移除都是 O(1),移动时不再整体搬移数组也不产生临时对象
+ */
+public class SnakeBody {
+    private int[] cells;
+    private int mask;
+    private int head; // 蛇头在数组中的位置
+    private int size;
+
+    public SnakeBody() {
+        this(16);
+    }
+
+    public SnakeBody(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+        cells = new int[n];
+        mask = n - 1;
+    }
+
+    // 在头部添加一个节点
+    public void addFirst(int cell) {
+        if (size == cells.length) {
+            grow();
+        }
+        head = (head - 1) & mask;
+        cells[head] = cell;
+        size++;
+    }
+
+    // 移除尾部节点
+    public int removeLast() {
+        if (size == 0) {
+            throw new NoSuchElementException("蛇身为空");
+        }
+        size--;
+        return cells[(head + size) & mask];
+    }
+
+    public int getFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException("蛇身为空");
+        }
+        return cells[head];
+    }
+
+    /**
+     * @param i 从蛇头开始的第 i 个节点
+     */
+    public int get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index:" + i + ",size:" + size);
+        }
+        return cells[(head + i) & mask];
+    }
+
+    public boolean contains(int cell) {
+        for (int i = 0; i < size; i++) {
+            if (cells[(head + i) & mask] == cell) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // 只读遍历,从蛇头到蛇尾
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // 容量翻倍,并把蛇头移到数组起始位置
+    private void grow() {
+        int[] newCells = new int[cells.length << 1];
+        for (int i = 0; i < size; i++) {
+            newCells[i] = cells[(head + i) & mask];
+        }
+        cells = newCells;
+        mask = newCells.length - 1;
+        head = 0;
+    }
+
+    public class Cursor {
+        private int i = 0;
+
+        public boolean hasNext() {
+            return i < size;
+        }
+
+        public int next() {
+            if (i >= size) {
+                throw new NoSuchElementException();
+            }
+            return cells[(head + i++) & mask];
+        }
+    }
+}
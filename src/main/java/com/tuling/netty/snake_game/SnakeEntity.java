@@ -3,8 +3,6 @@ package com.tuling.netty.snake_game;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-
 /**
  * Created by Tommy on 2018/1/8.
  */
@@ -17,9 +15,11 @@ public class SnakeEntity {
     private String accountId;
     private String gameName;
     private Direction direction;
-    private ArrayList<Integer[]> bodys = new ArrayList<>();//y,x
-    private ArrayList<Integer[]> addNodes = new ArrayList<>(); // 当前地图上添加的临时节点
-    private ArrayList<Integer[]> removeNodes = new ArrayList<>();//当前地图上移除的临时节点
+    private final MapGrid grid;
+    private final int id; // 引擎内编号,用于地图归属图层
+    private SnakeBody bodys = new SnakeBody();// 格子索引 y*width+x
+    private IntList addNodes = new IntList(); // 当前地图上添加的临时节点
+    private IntList removeNodes = new IntList();//当前地图上移除的临时节点
     private int dieIntegral; //积分
     private int killIntegral=0;// 击杀角色数
 
@@ -56,8 +56,10 @@ public class SnakeEntity {
         up, down, left, right;
     }
 
-    public SnakeEntity(SnakeGameEngine engine, String accountId, int startPoint, int initBodySzie, Direction defaultDirection) {
+    public SnakeEntity(SnakeGameEngine engine, int id, String accountId, int startPoint, int initBodySzie, Direction defaultDirection) {
         this.engine = engine;
+        this.grid = engine.getGrid();
+        this.id = id;
         this.accountId = accountId;
         this.direction = defaultDirection;
         state = State.inactive;
@@ -93,6 +95,39 @@ public class SnakeEntity {
         this.direction = direction;
     }
 
+    /**
+     * 基于状态推进一步,蛇身变化记录在 addNodes/removeNodes 中,由引擎统一写入地图
+     *
+     * @return 本次是否清除了死亡角色
+     */
+    public boolean step() {
+        switch (state) {
+            case inactive:
+                logger.info("激活新角色:{}", this);
+                active();
+                break;
+            case alive:
+                moveStep();
+                break;
+            case grow:// TODO 需重构成 先进食后消化
+                addToHead();
+                alive(); //  增涨后恢复为普通状态
+                break;
+            case dying:
+                die();
+                return true;
+            case die:   //角色已经死亡
+                break;
+            case offline:   //角色已经离线
+                return false;
+        }
+        //断定蛇头是否撞击边界
+        if (!isDie() && getHead() == MapGrid.OUTSIDE) {
+            dying();
+        }
+        return false;
+    }
+
     // 上前前动一步
     public void moveStep() {
         addToHead();
@@ -101,10 +136,9 @@ public class SnakeEntity {
 
 
     public void removeToTail() {
-        Integer[] node = bodys.remove(bodys.size() - 1);
-        if (engine.isMapRange(node)) {
+        int node = bodys.removeLast();
+        if (node != MapGrid.OUTSIDE) {
             removeNodes.add(node);
-            engine.getMark(node).snakeNodes--;
         }
     }
 
@@ -114,39 +148,44 @@ public class SnakeEntity {
     //3,0 3,1 3,2 3,3 3,4 3,5
     // 向前添加一个节点
     public void addToHead() {
-        Integer[] first = bodys.get(0);
-        Integer[] newFirst;
+        int first = bodys.getFirst();
+        if (first == MapGrid.OUTSIDE) { // 已撞出边界
+            add(MapGrid.OUTSIDE);
+            return;
+        }
+        int y = grid.getY(first);
+        int x = grid.getX(first);
         switch (direction) {
             case up:
-                newFirst = new Integer[]{first[0] - 1, first[1]};
+                y--;
                 break;
             case down:
-                newFirst = new Integer[]{first[0] + 1, first[1]};
+                y++;
                 break;
             case left:
-                newFirst = new Integer[]{first[0], first[1] - 1};
+                x--;
                 break;
             case right:
-                newFirst = new Integer[]{first[0], first[1] + 1};
+                x++;
                 break;
             default:
                 throw new RuntimeException("direction must not null");
         }
-
-       /* bodys.add(0, newFirst);
-        addNodes.add(newFirst);
-        engine.getMark(newFirst).snakes++;*/
-
-        add(0, newFirst);
+        add(grid.isRange(y, x) ? grid.index(y, x) : MapGrid.OUTSIDE);
     }
 
-    private void add(int index, Integer[] point) {
-        bodys.add(index, point);
-        if (engine.isMapRange(point)) {
-            engine.getMark(point).snakeNodes++;
-            addNodes.add(point);
+    private void add(int node) {
+        bodys.addFirst(node);
+        if (node != MapGrid.OUTSIDE) {
+            addNodes.add(node);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("添加节点 index:{}", node);
         }
-        logger.debug("添加节点 x:{} y:{}", point[1], point[0]);
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getAccountId() {
@@ -157,15 +196,15 @@ public class SnakeEntity {
         return direction;
     }
 
-    public ArrayList<Integer[]> getBodys() {
+    public SnakeBody getBodys() {
         return bodys;
     }
 
-    public ArrayList<Integer[]> getAddNodes() {
+    public IntList getAddNodes() {
         return addNodes;
     }
 
-    public ArrayList<Integer[]> getRemoveNodes() {
+    public IntList getRemoveNodes() {
         return removeNodes;
     }
 
@@ -204,7 +243,12 @@ public class SnakeEntity {
         logger.info("角色死亡 id:{} name:{}", accountId, gameName);
     }
 
+    // 离线时清除蛇身,移除的节点由下一次构建写入地图
     public void offline(){
+        int bodySize = bodys.size();
+        for (int i = 0; i < bodySize; i++) {
+            removeToTail();
+        }
         this.state=State.offline;
         logger.info("角色掉线 id:{} name:{}", accountId, gameName);
     }
@@ -231,9 +275,8 @@ public class SnakeEntity {
     }
 
     public void active() {
-        Integer[] first = new Integer[]{startPoint, startPoint};
         // 添加初始节点
-        add(0, first);
+        add(grid.index(startPoint, startPoint));
 
         // 添加蛇身
         for (int i = 1; i < initBodySzie; i++) {
@@ -241,12 +284,12 @@ public class SnakeEntity {
         }
         this.state = State.alive;
     }
-    // 获取头部位点
-    protected Integer[] getHead() {
+    // 获取头部位点,蛇身为空或撞出边界时返回 MapGrid.OUTSIDE
+    protected int getHead() {
         if (bodys.isEmpty()) {
-            return null;
+            return MapGrid.OUTSIDE;
         }
-        return bodys.get(0);
+        return bodys.getFirst();
     }
 
     public int getDieIntegral() {
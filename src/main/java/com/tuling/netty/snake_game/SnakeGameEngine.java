@@ -1,14 +1,17 @@
 package com.tuling.netty.snake_game;
 
 
+import com.lmax.disruptor.WaitStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 蛇蛇游戏引擎
@@ -16,323 +19,511 @@ import java.util.concurrent.TimeUnit;
  */
 public class SnakeGameEngine {
     static final Logger logger = LoggerFactory.getLogger(SnakeGameEngine.class);
-    public Map<String, SnakeEntity> snakes = new HashMap<>();
+    // 只在模拟阶段中修改,IO 线程与广播阶段会并发读取
+    public Map<String, SnakeEntity> snakes = new ConcurrentHashMap<>();
+    // 按角色ID索引,与地图归属图层对应,离线角色的ID清除蛇身后回收
+    private final List<SnakeEntity> snakeIndex = new ArrayList<>();
+    // 可复用的角色ID
+    private final IntList freeIds = new IntList();
+    // 分区域构建
+    private RegionTicker ticker;
     private final int mapWidth;
     private final int mapHeight;
 
     // 存储了地图上所有的节点
-    private final Mark mapsMarks[];
+    private final MapGrid grid;
     // 刷新间隔(毫秒)
     private final int refreshTime;
 
-    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
-    private ScheduledExecutorService stateService = Executors.newScheduledThreadPool(1);
-
-    private ScheduledFuture<?> mapFuture;
+    // 游戏时钟线程,引擎状态只在该线程中修改
+    private final ScheduledExecutorService executorService;
+    // 时钟线程池由引擎自己创建时,停止引擎时一并关闭
+    private final boolean ownExecutor;
+    // 状态信息更新间隔(毫秒)
+    private static final int stateRefreshTime = 1000;
+    private long lastStateTime;
+    // 玩家指令对列,多个 IO 线程写入,时钟线程在每次构建前取出执行
+    private final Queue<GameCommand> commandQueue = new ConcurrentLinkedQueue<>();
+
+    // 直接模式下循环使用的时钟槽位
+    private final TickEvent directSlot = new TickEvent();
+    // 流水线模式,为空时所有阶段在时钟线程中依次执行
+    private TickPipeline pipeline;
+    // 流水线由引擎自己创建时,随引擎启动与停止
+    private boolean ownPipeline;
+    // 已发布到流水线、尚未广播完成的时钟数
+    final AtomicInteger pipelineTicks = new AtomicInteger();
+    // 正在广播的槽位,只在广播阶段线程中读写
+    private TickEvent broadcastSlot;
+
+    // 固定频率时钟
+    private GameClock clock;
+    private String name = "engine";
+    private GameClock.CatchUp catchUp = GameClock.CatchUp.SKIP;
+    private int maxCatchUpSteps = 3;
     private SnakeGameListener listener;
-    private Long currentVersion = 0L;
-    private volatile LinkedList<VersionData> historyVersionData = new LinkedList();
-    private volatile VersionData currentMapData = null;
-    private static final int historyVersionMax = 20;
-    private ArrayList<Food> foods = new ArrayList<>();
+    private volatile long currentVersion = 0L;
+    // 版本历史,按版本号环形存放
+    private final VersionHistory history = new VersionHistory(historyVersionMax);
+    // 全量地图快照,编码阶段按版本变更维护
+    private final MapSnapshot snapshot;
+    private static final int historyVersionMax = 64;
+    // 食物类型 后续扩展 加速 、麻痹
+    private static final int FOOD_NORMAL = 1;
+    // 地图上的食物数量,食物本身存放在地图食物图层中
+    private int foodCount = 0;
     private int footMaxSize = 10;
-    private ScheduledFuture<?> stateFuture;
+    private Random random = new Random();
+    // 积分排行榜
+    private final Leaderboard leaderboard = new Leaderboard();
     // 事件对列
     private LinkedList<GameEvent> eventQueue = new LinkedList();
 
     public SnakeGameEngine() {
-        mapWidth = 400;
-        mapHeight = 300;
-        refreshTime = 200;
-        mapsMarks = new Mark[mapWidth * mapHeight];
+        this(400, 300, 200);
     }
 
     public SnakeGameEngine(int mapWidth, int mapHeight, int refreshTime) {
+        this(mapWidth, mapHeight, refreshTime, null);
+    }
+
+    /**
+     * @param executorService 共享的时钟线程池,为空时引擎自己创建单线程时钟
+     */
+    public SnakeGameEngine(int mapWidth, int mapHeight, int refreshTime, ScheduledExecutorService executorService) {
         this.mapWidth = mapWidth;
         this.mapHeight = mapHeight;
         this.refreshTime = refreshTime;
-        mapsMarks = new Mark[mapWidth * mapHeight];
+        grid = new MapGrid(mapWidth, mapHeight);
+        snapshot = new MapSnapshot(mapWidth, mapHeight);
+        ticker = new RegionTicker(grid, snakeIndex, null);
+        this.ownExecutor = executorService == null;
+        this.executorService = ownExecutor ? Executors.newSingleThreadScheduledExecutor() : executorService;
     }
 
 
     // 启动
     public void start() {
         logger.info("游戏引擎启动...");
-        // 固定间隔执行任务
-        mapFuture = executorService.scheduleWithFixedDelay(new Runnable() {
-            @Override
-            public void run() {
-                gameTimeStep();
-            }
-        }, refreshTime, refreshTime, TimeUnit.MILLISECONDS);
-
-        // 状态信息更新
-        stateFuture = stateService.scheduleWithFixedDelay(new Runnable() {
+        if (pipeline != null && ownPipeline) {
+            pipeline.start();
+        }
+        lastStateTime = System.currentTimeMillis();
+        // 固定频率执行任务
+        clock = new GameClock(name, executorService, refreshTime, catchUp, maxCatchUpSteps, new GameClock.Tick() {
             @Override
-            public void run() {
-                // 触发状态变更事件
-                fireStateChange();
-                fireNoticeEvent();
+            public void tick(int steps) {
+                if (pipeline != null) {
+                    pipeline.publish(SnakeGameEngine.this, steps);
+                } else {
+                    gameTimeStep(steps);
+                }
             }
-        }, 1000, 1000, TimeUnit.MILLISECONDS);
+        });
+        clock.start();
     }
 
-    private void fireNoticeEvent() {
-        if (listener == null)
-            return;
-        if (eventQueue.isEmpty())
-            return;
-        GameEvent[] events = eventQueue.toArray(new GameEvent[eventQueue.size()]);
-        listener.noticeEvent(events);
-        // TODO 可能为引发线程同步的问题
-        for (GameEvent event : events) {
-            eventQueue.remove(event);
-        }
+    private GameStatistics buildStatistics() {
+        GameStatistics statistics = new GameStatistics();
+        statistics.setLastVersion(currentVersion);
+        // TODO 在线人数需除去离线角色
+        statistics.setOnlineCount(snakes.size());
+        statistics.setRankingList(getRankingList());
+        return statistics;
     }
 
-    private void fireStateChange() {
-        if (listener != null) {
-            GameStatistics statistics = new GameStatistics();
-            statistics.setLastVersion(currentVersion);
-            // TODO 在线人数需除去离线角色
-            statistics.setOnlineCount(snakes.size());
-            statistics.setRankingList(getRankingList());
-            listener.statusChange(statistics);
+    // 各角色的积分与名次,广播阶段只读取该结果
+    private Map<String, IntegralInfo> buildIntegrals() {
+        Map<String, IntegralInfo> integrals = new HashMap<>(snakes.size() * 2);
+        for (SnakeEntity snake : snakes.values()) {
+            IntegralInfo info = toIntegralInfo(snake);
+            info.setRank(leaderboard.rank(snake));
+            integrals.put(snake.getAccountId(), info);
         }
+        return integrals;
     }
 
     //animate
     public void gameTimeStep() {
+        gameTimeStep(1);
+    }
+
+    /**
+     * 直接模式,在时钟线程中依次执行所有阶段
+     *
+     * @param steps 模拟步数,多步模拟的变更合并为一个版本
+     */
+    public void gameTimeStep(int steps) {
+        directSlot.reset();
+        directSlot.steps = steps;
+        input(directSlot);
+        simulate(directSlot);
+        try {
+            encode(directSlot);
+        } catch (Throwable e) {
+            logger.error("版本编码异常", e);
+        }
+        broadcast(directSlot);
+    }
+
+    /**
+     * 输入阶段:取出对列中的玩家指令
+     */
+    void input(TickEvent slot) {
+        GameCommand command;
+        while ((command = commandQueue.poll()) != null) {
+            slot.commands.add(command);
+        }
+    }
+
+    /**
+     * 模拟阶段:执行指令与游戏规则,并把本次构建的结果记录到槽位中
+     */
+    void simulate(TickEvent slot) {
+        for (int step = 0; step < slot.steps; step++) {
+            try {
+                // 玩家指令只在第一步中执行
+                build(slot, step == 0);
+            } catch (Throwable e) {
+                logger.error("地图构建异常", e);
+            } finally {
+                afterBuild();
+            }
+        }
         try {
-            build();
+            commitVersion(slot);
         } catch (Throwable e) {
-            logger.error("地图构建异常", e);
-        } finally {
-            afterBuild();
+            logger.error("版本提交异常", e);
+        }
+        for (SnakeEntity snake : snakeIndex) {
+            slot.addHead(snake);
+        }
+        // 状态信息更新
+        long now = System.currentTimeMillis();
+        if (now - lastStateTime >= stateRefreshTime) {
+            lastStateTime = now;
+            try {
+                slot.statistics = buildStatistics();
+                slot.integrals = buildIntegrals();
+                slot.events = eventQueue.toArray(new GameEvent[eventQueue.size()]);
+                eventQueue.clear();
+            } catch (Throwable e) {
+                logger.error("状态统计失败", e);
+            }
         }
     }
 
-    private void build() {
+    /**
+     * 编码阶段:编码版本变更数据并归档
+     */
+    void encode(TickEvent slot) {
+        if (slot.version == 0) {
+            return;
+        }
+        VersionDelta delta = new VersionDelta(slot.version, slot.time, mapWidth,
+                VersionDelta.sortedCells(slot.bodyNodes),
+                VersionDelta.sortedCells(slot.foodNodes),
+                VersionDelta.sortedCells(slot.clearNodes));
         /**
-         * 基于状态执行算法
+         * 版本归档存储
          */
-        for (SnakeEntity snake : snakes.values()) {
-            switch (snake.getState()) {
-                case inactive:
-                    logger.info("激活新角色:{}当前版本:{}", snake.toString(), currentVersion + 1);
-                    snake.active();
-                    break;
-                case alive:
-                    snake.moveStep();
-                    break;
-                case grow:// TODO 需重构成 先进食后消化
-                    snake.addToHead();
-                    snake.alive(); //  增涨后恢复为普通状态
-//                    snake.moveStep();
+        history.add(delta);
+        slot.delta = delta;
+    }
+
+    /**
+     * 广播阶段:通知版本变更、状态与事件
+     */
+    void broadcast(TickEvent slot) {
+        // 增量维护全量快照,放在广播阶段使快照与正在广播的版本一致,流水线中编码阶段可能已领先
+        if (slot.delta != null) {
+            snapshot.apply(slot.delta);
+        }
+        if (listener == null) {
+            return;
+        }
+        broadcastSlot = slot;
+        if (slot.delta != null) {
+            try {
+                listener.versionChange(slot.delta);
+            } catch (Throwable e) {
+                logger.error("版本变更通知失败", e);
+            }
+        }
+        if (slot.statistics != null) {
+            try {
+                // 触发状态变更事件
+                listener.statusChange(slot.statistics);
+                if (slot.events.length > 0) {
+                    listener.noticeEvent(slot.events);
+                }
+            } catch (Throwable e) {
+                logger.error("状态通知失败", e);
+            }
+        }
+        try {
+            listener.flush();
+        } catch (Throwable e) {
+            logger.error("广播刷新失败", e);
+        }
+    }
+
+    // 执行本次构建的玩家指令
+    private void applyCommands(List<GameCommand> commands) {
+        for (GameCommand command : commands) {
+            switch (command.type) {
+                case join:
+                    joinSnake(command.accountId, command.data);
                     break;
-                case dying:
-                    snake.die();
-                    // 生成死亡事件并通知客户端
-                    GameEvent event = new GameEvent(GameEvent.EventType.die, "角色死亡");
-                    event.setAccountId(snake.getAccountId());
-                    eventQueue.addFirst(event);
+                case control:
+                    applyControl(command.accountId, command.code);
                     break;
-                case die:   //角色已经死亡
+                case resurgence:
+                    resurgenceSnake(command.accountId);
                     break;
-                case offline:   //角色已经离线
+                case offline:
+                    removeSnake(command.accountId);
                     break;
             }
         }
+    }
 
-        // 当前版本 新增的节点
-        ArrayList<Integer[]> changeNodes = new ArrayList<>();
-
+    private void build(TickEvent slot, boolean applyCommands) {
+        if (applyCommands) {
+            applyCommands(slot.commands);
+        }
+        /**
+         * 基于状态执行算法,并按区域执行触发的游戏规则
+         */
+        ticker.tick();
 
         /**
-         * 执行触发的游戏规则
+         * 按固定顺序合并各分段与区域的结果
          */
-        for (SnakeEntity snake : snakes.values()) {
-            if(snake.isOffline())
-                continue;
-            //断定蛇头是否撞击边界
-            if (!snake.isDie() && !isMapRange(snake.getHead())) {
-                snake.dying();
+        for (int c = 0; c < ticker.getChunkCount(); c++) {
+            IntList died = ticker.getDiedSnakes(c);
+            for (int i = 0; i < died.size(); i++) {
+                // 生成死亡事件并通知客户端
+                GameEvent event = new GameEvent(GameEvent.EventType.die, "角色死亡");
+                event.setAccountId(snakeIndex.get(died.get(i)).getAccountId());
+                eventQueue.addFirst(event);
+            }
+        }
+        for (int r = 0; r < ticker.getRegionCount(); r++) {
+            IntList eats = ticker.getEats(r);
+            for (int i = 0; i < eats.size(); i += 2) {
+                digestionFood(snakeIndex.get(eats.get(i)), eats.get(i + 1));
             }
-            for (Integer[] node : snake.getAddNodes()) {
-                if (getMark(node).snakeNodes > 1) { // 是否撞击蛇身
-                    // 死亡规则触发
-                    snake.dying();
-                    // 击杀规则触发
-                    killSnake(snake, node);
-                } else if (getMark(node).footNode > 0) {// 吃掉食物
-                    digestionFood(snake, node);
+        }
+        for (int r = 0; r < ticker.getRegionCount(); r++) {
+            IntList collisions = ticker.getCollisions(r);
+            for (int i = 0; i < collisions.size(); i += 2) {
+                SnakeEntity snake = snakeIndex.get(collisions.get(i));
+                // 死亡规则触发
+                snake.dying();
+                // 击杀规则触发
+                if (collisions.get(i + 1) != MapGrid.NO_OWNER) {
+                    killSnake(snake, snakeIndex.get(collisions.get(i + 1)));
                 }
             }
+        }
+
+        // 当前版本 新增的节点,多步模拟时累计所有步的变更
+        IntList changeNodes = slot.changeNodes;
+        for (int id = 0; id < snakeIndex.size(); id++) {
+            SnakeEntity snake = snakeIndex.get(id);
+            if (snake == null) {
+                continue;
+            }
             changeNodes.addAll(snake.getAddNodes());
             changeNodes.addAll(snake.getRemoveNodes());
+            if (snake.isOffline()) {
+                // 蛇身已从地图清除,回收角色ID
+                snake.flush();
+                snakeIndex.set(id, null);
+                freeIds.add(id);
+            }
         }
 
 
         // 投放规定量食物
-        while (foods.size() < footMaxSize) {
-            Food food = grantFood();
-            changeNodes.add(food.point);
+        while (foodCount < footMaxSize && grid.getFreeCount() > 0) {
+            changeNodes.add(grantFood());
         }
+    }
 
-
+    private void commitVersion(TickEvent slot) {
+        IntList changeNodes = slot.changeNodes;
         // 如果变更不为空，则创建新的版本号
         if (!changeNodes.isEmpty()) {
+            slot.version = currentVersion + 1;
+            slot.time = System.currentTimeMillis();
+            // 按变更后的格子内容分类,之后的阶段不再读取地图
+            classifyChanges(changeNodes, slot);
             /**
-             * 编码新版本数据
+             * 变更版本号
              */
-            long newVersion = currentVersion + 1;
-
+            currentVersion = slot.version;
+        }
+    }
 
-            /**
-             * 版本归档存储
-             */
-            while (historyVersionData.size() >= historyVersionMax) {
-                historyVersionData.removeLast();
-            }
-            VersionData changeData = encodeVersion(newVersion, changeNodes);
-            historyVersionData.addFirst(changeData);
+    /**
+     * @param die    被击杀角色
+     * @param killer 击杀者
+     */
+    private void killSnake(SnakeEntity die, SnakeEntity killer) {
+        leaderboard.addKill(killer);// 增加角色击杀积分
+        logger.info("{}击杀{}", killer.getGameName(), die.getGameName());
+    }
 
-            /**
-             * 变更版本号
-             */
-            currentVersion = newVersion;
-            // 刷新整体地图
-            getCurrentMapData(true);
-            /**
-             * 通知版本变更
-             */
-            if (listener != null) {
-                try {
-                    listener.versionChange(changeData, null);
-                } catch (Exception e) {
-                    logger.error("版本变更通知失败", e);
-                }
+    private void afterBuild() {
+        for (SnakeEntity snake : snakeIndex) {
+            if (snake != null) {
+                snake.flush();
             }
-
         }
     }
 
     /**
-     * @param die       被击杀角色数
-     * @param killPoint 击杀点位
+     * 随机选择一个空位投放食物
+     *
+     * @return 投放点位的格子索引
      */
-    private void killSnake(SnakeEntity die, Integer[] killPoint) {
-        // 找出击杀点位下所有角色
-        List<SnakeEntity> list = getSnakeByNode(killPoint);
-        list.remove(die); // 移除角色自身
-        SnakeEntity killer = null;
-        for (SnakeEntity snakeEntity : list) {
-            if (Arrays.equals(killPoint, snakeEntity.getHead()))
-                continue;
-            killer = snakeEntity;
-            break;
+    public int grantFood() {
+        // 随机生成的投放点
+        int releasePoint = grid.randomFreeCell(random);
+        if (releasePoint == MapGrid.OUTSIDE) {
+            throw new RuntimeException("投食失败。无法找到空位投食");
         }
+        grid.setFood(releasePoint, FOOD_NORMAL);
+        foodCount++;
+        return releasePoint;
+    }
 
-        if (killer != null) {
-            killer.addKillIntegral();// 增加角色击杀积分
-            logger.info("{}击杀{}", killer.getGameName(), die.getGameName());
-        }
+    // 吃掉食物,地图中的食物标记已在区域碰撞规则中清除
+    private void digestionFood(SnakeEntity snake, int point) {
+        foodCount--;
+        snake.grow();// 指定角色为增长状态
+        logger.info("吃掉食物 位置信息：x={},y={},角色信息:{}", grid.getX(point), grid.getY(point), snake.toString());
     }
 
-    private List<SnakeEntity> getSnakeByNode(Integer[] node) {
-        List<SnakeEntity> result = new ArrayList<>();
-        for (SnakeEntity snakeEntity : snakes.values()) {
-            for (Integer[] integers : snakeEntity.getBodys()) {
-                if (Arrays.equals(integers, node)) {
-                    result.add(snakeEntity);
-                    break;
-                }
-            }
-        }
-        return result;
+    public int getFootMaxSize() {
+        return footMaxSize;
     }
 
-    private void afterBuild() {
-        for (SnakeEntity snake : snakes.values()) {
-            snake.flush();
-        }
+    // 地图上保持的食物数量
+    public void setFootMaxSize(int footMaxSize) {
+        this.footMaxSize = footMaxSize;
     }
 
-    public Food grantFood() {
-        // 随机生成的投放点
-        int releasePoint = -1;
-
-        Random random = new Random();
-        int start = random.nextInt(mapHeight * mapHeight - 5) + 4;
-        int nextCount = random.nextInt(50);
-
-        // i 查找开始位置
-        // n 从开始位置起的第 n个空位,如果所有空位没有n个，则往后减
-        // m 遍历的最大值,防止无限循环
-        for (int i = start, n = 0, m = 0; i < mapsMarks.length
-                && m < mapsMarks.length; i++, m++) {
-            if (mapsMarks[i] == null || mapsMarks[i].isEmpty()) {
-                n++;
-                releasePoint = i;
-                if (n >= nextCount) {
-                    break;
-                }
-            }
-            // 重新从0开始遍历
-            if (i == mapsMarks.length - 1) {
-                i = 0;
-            }
-        }
-        if (releasePoint > -1) {
-            Integer[] point = new Integer[]{releasePoint / mapWidth, releasePoint % mapWidth};
-            Food food = new Food(point, 1);
-            foods.add(food);
-            getMark(point).footNode = 1;
-            return food;
-        } else {
-            throw new RuntimeException("投食失败。无法找到空位投食");
-        }
+
+    /**
+     * 开启并行构建,地图按区域拆分后在指定线程池中执行移动与碰撞规则,
+     * 构建结果与单线程构建一致。需在 start() 之前调用
+     *
+     * @param pool 为空时恢复单线程构建
+     */
+    public void setParallelPool(ForkJoinPool pool) {
+        ticker = new RegionTicker(grid, snakeIndex, pool);
     }
 
-    // 吃掉食物
-    private Food digestionFood(SnakeEntity snake, Integer[] point) {
-        Food food = null;
-        for (Food f : foods) {
-            if (Arrays.equals(f.point, point)) {
-                food = f;
-                break;
-            }
-        }
-        if (food == null) {
-            throw new RuntimeException(
-                    String.format("消化食物异常，坐标上不存在指定食物x:%s,y:%s", point[1], point[00]));
-        }
+    /**
+     * 开启流水线模式,输入、模拟、编码、广播分别在独立线程中执行。需在 start() 之前调用
+     *
+     * @param ringSize     槽位数量,必须为 2 的幂
+     * @param waitStrategy 阶段线程等待策略,见 TickPipeline.waitStrategy(String)
+     */
+    public void enablePipeline(int ringSize, WaitStrategy waitStrategy) {
+        pipeline = new TickPipeline(ringSize, waitStrategy);
+        ownPipeline = true;
+    }
 
-        foods.remove(food); // 从食物列表中移除
-        getMark(point).footNode = 0;// 清除地图中食物标记状态
-        snake.grow();// 指定角色为增长状态
-        logger.info("吃掉食物 位置信息：x={},y={},角色信息:{}", point[1], point[0], snake.toString());
-        return food;
+    /**
+     * 使用多个引擎共用的流水线,流水线由调用方启动与停止。需在 start() 之前调用
+     */
+    public void setPipeline(TickPipeline pipeline) {
+        this.pipeline = pipeline;
+        this.ownPipeline = false;
+    }
+
+    /**
+     * 设置时钟落后时的追赶策略,需在 start() 之前调用
+     *
+     * @param maxSteps 最多追赶的步数
+     */
+    public void setCatchUp(GameClock.CatchUp catchUp, int maxSteps) {
+        this.catchUp = catchUp;
+        this.maxCatchUpSteps = maxSteps;
     }
 
+    // 时钟统计,未启动时为空
+    public GameClock getClock() {
+        return clock;
+    }
+
+    // 引擎名称,用于时钟日志
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public TickPipeline getPipeline() {
+        return pipeline;
+    }
+
+    // 指定随机数生成器,用于出生点位与投食,便于重现同一局游戏
+    public void setRandom(Random random) {
+        this.random = random;
+    }
 
     // 停止运行中的地图
     public void stop() {
-        if (mapFuture != null && !mapFuture.isCancelled()) {
-            mapFuture.cancel(false);
+        if (clock != null) {
+            clock.stop();
+        }
+        if (pipeline != null && ownPipeline) {
+            pipeline.shutdown();
         }
-        if (stateFuture != null && !stateFuture.isCancelled()) {
-            stateFuture.cancel(false);
+        if (ownExecutor) {
+            executorService.shutdown();
         }
     }
+    /**
+     * 新增角色,在下一次地图构建时生效
+     */
+    public void newSnake(String accountId, String accountName) {
+        commandQueue.offer(new GameCommand(GameCommand.Type.join, accountId, accountName, 0));
+    }
+
+    /**
+     * 控制角色方向,在下一次地图构建时生效
+     */
+    public void controlSnake(String accountId, int controlCode) {
+        commandQueue.offer(new GameCommand(GameCommand.Type.control, accountId, null, controlCode));
+    }
+
+    /**
+     * 角色复活,在下一次地图构建时生效
+     */
+    public void doResurgence(String accountId) {
+        commandQueue.offer(new GameCommand(GameCommand.Type.resurgence, accountId, null, 0));
+    }
+
+    /**
+     * 角色离开游戏(如切换房间),在下一次地图构建时清除蛇身
+     */
+    public void offlineSnake(String accountId) {
+        commandQueue.offer(new GameCommand(GameCommand.Type.offline, accountId, null, 0));
+    }
+
     //TODO BUG 出生点位 可能已经被占用
-    public SnakeEntity newSnake(String accountId, String accountName) {
+    private SnakeEntity joinSnake(String accountId, String accountName) {
         int max = Math.min(mapWidth, mapHeight) - 10;
         int min = 10;
-        Random random = new Random();
         // 随机生成 出生点位
         int startPoint = random.nextInt(max - min + 1) + min;
-        SnakeEntity node = new SnakeEntity(this, accountId, startPoint,
+        // 优先复用离线角色的ID
+        int id = freeIds.isEmpty() ? snakeIndex.size() : freeIds.removeLast();
+        SnakeEntity node = new SnakeEntity(this, id, accountId, startPoint,
                 3, SnakeEntity.Direction.right);
         String gameName=accountName;
         // 防重名机制,补充accountId为后缀
@@ -344,12 +535,31 @@ public class SnakeGameEngine {
         }
         node.setGameName(gameName);
 
-        snakes.put(node.getAccountId(), node);
+        SnakeEntity old = snakes.put(node.getAccountId(), node);
+        if (old != null) { // 重复加入,原角色不再参与构建
+            old.offline();
+            leaderboard.remove(old);
+        }
+        leaderboard.add(node);
+        if (id == snakeIndex.size()) {
+            snakeIndex.add(node);
+        } else {
+            snakeIndex.set(id, node);
+        }
         this.logger.info("新增Snake ID:{} 出生点位:{} 初始节点:{}", accountId, startPoint, 3);
         return node;
     }
 
-    public void controlSnake(String accountId, int controlCode) {
+    private void removeSnake(String accountId) {
+        SnakeEntity snake = snakes.remove(accountId);
+        if (snake == null) {
+            return;
+        }
+        snake.offline();
+        leaderboard.remove(snake);
+    }
+
+    private void applyControl(String accountId, int controlCode) {
         if (!snakes.containsKey(accountId)) {
 //            logger.warn("找不到指定帐户");
             return;
@@ -376,13 +586,8 @@ public class SnakeGameEngine {
         logger.debug("指令控制 ID:{},指令:{}", accountId, controlCode);
     }
 
-    public Mark getMark(Integer[] point) {
-        int index = point[0] * mapWidth + point[1];
-        if (index < 0 || index >= mapsMarks.length) {
-            throw new IllegalArgumentException(String
-                    .format("超出地图边界x=%s,y=%s", point[1], point[0]));
-        }
-        return getMark(index);
+    public MapGrid getGrid() {
+        return grid;
     }
 
     /**
@@ -392,141 +597,105 @@ public class SnakeGameEngine {
      * @return
      */
     public boolean isMapRange(Integer[] point) {
-        return point[0] >= 0 && point[0] < mapHeight && point[1] >= 0 && point[1] < mapWidth;
-    }
-
-    private Mark getMark(int index) {
-        if (mapsMarks[index] == null) {
-            mapsMarks[index] = new Mark();
-        }
-        return mapsMarks[index];
+        return grid.isRange(point[0], point[1]);
     }
 
     // 获取当前所有位点
     public ArrayList<Integer[]> getAllPoint() {
         ArrayList<Integer[]> allPoints = new ArrayList<>(2000);
         Integer x, y;
-        for (int i = 0; i < mapsMarks.length; i++) {
-            if (mapsMarks[i] != null && !mapsMarks[i].isEmpty()) {
-                x = i % mapWidth;
-                y = i / mapWidth;
+        for (int i = 0; i < grid.size(); i++) {
+            if (!grid.isEmpty(i)) {
+                x = grid.getX(i);
+                y = grid.getY(i);
                 allPoints.add(new Integer[]{y, x});
             }
         }
         return allPoints;
     }
 
-    // 构建当前地图所有的像素
-    private VersionData encodeCurrentMapData() {
-        StringBuilder body = new StringBuilder();
-        StringBuilder food = new StringBuilder();
-        Mark mark;
-        int x, y;
-        for (int i = 0; i < mapsMarks.length; i++) {
-            mark = mapsMarks[i];
-            x = i % mapWidth;
-            y = i / mapWidth;
-            if (mark != null && mark.snakeNodes > 0) {
-                body.append("," + x + "," + y);
-            } else if (mark != null && mark.footNode > 0) {
-                food.append("," + x + "," + y);
+    private void classifyChanges(IntList changePoints, TickEvent slot) {
+        int index;
+        for (int i = 0; i < changePoints.size(); i++) {
+            index = changePoints.get(i);
+            if (grid.isEmpty(index)) {
+                slot.clearNodes.add(index);
+            } else if (grid.getSnakeNodes(index) > 0) {
+                slot.bodyNodes.add(index);
+            } else if (grid.getFood(index) > 0) {
+                slot.foodNodes.add(index);
             }
         }
-        List<String> cmds = new ArrayList();
-        List<String> cmdDatas = new ArrayList();
-
-        // 去掉前缀 中的逗号
-        if (body.length() > 0) {
-            body.deleteCharAt(0);
-            cmds.add("Green");
-            cmdDatas.add(body.toString());
-        }
-        if (food.length() > 0) {
-            food.deleteCharAt(0);
-            cmds.add("Yellow");
-            cmdDatas.add(food.toString());
-        }
-        VersionData vd = new VersionData(currentVersion, System.currentTimeMillis());
-        vd.setCmds(cmds.toArray(new String[cmds.size()]));
-        vd.setCmdDatas(cmdDatas.toArray(new String[cmdDatas.size()]));
-        vd.setFull(true);
-        return vd;
-    }
-
-    // 构建当前版本地图像素的变更
-    private VersionData encodeVersion(long version, ArrayList<Integer[]> changePoints) {
-        StringBuilder body = new StringBuilder();
-        StringBuilder food = new StringBuilder();
-        StringBuilder remove = new StringBuilder();
-        Mark mark;
-        for (Integer[] p : changePoints) {
-            mark = getMark(p);
-            if (mark == null || mark.isEmpty()) {
-                remove.append("," + p[1] + "," + p[0]);
-            } else if (mark.snakeNodes > 0) {
-                body.append("," + p[1] + "," + p[0]);
-            } else if (mark.footNode > 0) {
-                food.append("," + p[1] + "," + p[0]);
-            }
-        }
-        List<String> cmds = new ArrayList();
-        List<String> cmdDatas = new ArrayList();
-        // 去掉前缀 中的逗号
-        if (body.length() > 0) {
-            body.deleteCharAt(0);
-            cmds.add("Green");
-            cmdDatas.add(body.toString());
-        }
-        if (food.length() > 0) {
-            food.deleteCharAt(0);
-            cmds.add("Yellow");
-            cmdDatas.add(food.toString());
-        }
-        if (remove.length() > 0) {
-            remove.deleteCharAt(0);
-            cmds.add("Black");
-            cmdDatas.add(remove.toString());
-        }
+    }
+
+    /**
+     * 全量地图数据,每个版本最多编码一次
+     */
+    public VersionData getCurrentMapData() {
+        return snapshot.getVersionData();
+    }
 
-        VersionData vd = new VersionData(version, System.currentTimeMillis());
-        vd.setCmds(cmds.toArray(new String[cmds.size()]));
-        vd.setCmdDatas(cmdDatas.toArray(new String[cmdDatas.size()]));
-        vd.setFull(false);
-        return vd;
+    // 版本历史保留的版本数
+    public int getHistoryCapacity() {
+        return history.getCapacity();
     }
 
+    public MapSnapshot getSnapshot() {
+        return snapshot;
+    }
 
-    public VersionData getCurrentMapData(boolean check) {
-        if (currentMapData == null) {
-            currentMapData = encodeCurrentMapData();
-        } else if (check && currentMapData.getVersion() < currentVersion) {
-            currentMapData = encodeCurrentMapData();
-        }
-        return currentMapData;
+    /**
+     * @return 指定版本,已不在历史中时返回空
+     */
+    public VersionDelta getVersion(long version) {
+        return history.get(version);
     }
 
-    public List<VersionData> getVersion(Long[] versionId) {
-        List<VersionData> list = new ArrayList<>();
-        VersionData[] historys = historyVersionData.toArray(new VersionData[list.size()]);
-        for (VersionData historyVersion : historys) {
-            for (long v : versionId) {
-                if (historyVersion.getVersion() == v) {
-                    list.add(historyVersion);
-                }
+    public List<VersionDelta> getVersion(Long[] versionId) {
+        List<VersionDelta> list = new ArrayList<>();
+        for (long v : versionId) {
+            VersionDelta delta = history.get(v);
+            if (delta != null) {
+                list.add(delta);
             }
         }
         return list;
     }
 
-    public DrawingCommand getDrawingCommand(String accountId) {
-        DrawingCommand cmd = null;
-        if (!snakes.containsKey(accountId)) {
-            return cmd;
+    /**
+     * 合并区间内的版本
+     *
+     * @param to 小于等于 0 时合并到最新版本
+     * @return 区间内有版本已不在历史中时返回空
+     */
+    public VersionDelta getVersionRange(long from, long to) {
+        if (to <= 0) {
+            to = history.getLatest();
         }
+        return history.merge(from, to);
+    }
+
+    /**
+     * 角色的蛇头位点,只能在监听器的广播回调中调用,蛇头取自正在广播的版本
+     *
+     * @return 格子索引,没有角色时返回 MapGrid.OUTSIDE
+     */
+    public int getHead(String accountId) {
         SnakeEntity snake = snakes.get(accountId);
-        Integer[] head = snake.getHead();
-        if (head != null)
-            cmd = new DrawingCommand("Lime", head[1] + "," + head[0]);
+        if (snake == null || broadcastSlot == null) {
+            return MapGrid.OUTSIDE;
+        }
+        return broadcastSlot.getHead(snake);
+    }
+
+    /**
+     * 角色的特殊作画指令,只能在监听器的广播回调中调用
+     */
+    public DrawingCommand getDrawingCommand(String accountId) {
+        DrawingCommand cmd = null;
+        int head = getHead(accountId);
+        if (head != MapGrid.OUTSIDE)
+            cmd = new DrawingCommand("Lime", grid.getX(head) + "," + grid.getY(head));
         return cmd;
     }
 
@@ -537,23 +706,17 @@ public class SnakeGameEngine {
      * @return
      */
     public List<IntegralInfo> getRankingList() {
-        List<IntegralInfo> result = new ArrayList<>(10);
-        List<SnakeEntity> list = new ArrayList<>(snakes.size());
-        list.addAll(snakes.values());
-        Collections.sort(list, new Comparator<SnakeEntity>() {
-            @Override
-            public int compare(SnakeEntity o1, SnakeEntity o2) {
-                return o1.getKillIntegral() - o2.getKillIntegral();
-            }
-        });
+        List<SnakeEntity> top = leaderboard.top(10);
+        List<IntegralInfo> result = new ArrayList<>(top.size());
         IntegralInfo info;
-        for (int i = 0; i < list.size() && i < 10; i++) {
-            info = new IntegralInfo();
-            info.setLastVersion(currentVersion);
-            info.setGameName(list.get(i).getGameName());
-            info.setAccountId(list.get(i).getAccountId());
-            info.setDieIntegral(list.get(i).getDieIntegral());
-            info.setKillIntegral(list.get(i).getKillIntegral());
+        for (int i = 0; i < top.size(); i++) {
+            info = toIntegralInfo(top.get(i));
+            // 击杀数相同的名次相同
+            if (i > 0 && info.getKillIntegral() == result.get(i - 1).getKillIntegral()) {
+                info.setRank(result.get(i - 1).getRank());
+            } else {
+                info.setRank(i + 1);
+            }
             result.add(info);
         }
         return result;
@@ -567,12 +730,34 @@ public class SnakeGameEngine {
         return snakes.get(accountId);
     }
 
+    /**
+     * 角色当前积分,读取角色状态,只能在引擎的模拟线程中或引擎停止后调用,
+     * 广播回调中使用 getBroadcastIntegralInfo
+     */
     public IntegralInfo getIntegralInfoByAccountId(String accountId) {
         if (!snakes.containsKey(accountId)) {
 //            logger.warn("找不到指定帐户");
             return null;
         }
         SnakeEntity snake = snakes.get(accountId);
+        IntegralInfo info = toIntegralInfo(snake);
+        info.setRank(leaderboard.rank(snake));
+        return info;
+    }
+
+    /**
+     * 角色积分,只能在监听器的广播回调中调用,积分取自正在广播的状态统计
+     *
+     * @return 角色在该次统计之后加入时返回空
+     */
+    public IntegralInfo getBroadcastIntegralInfo(String accountId) {
+        if (broadcastSlot == null || broadcastSlot.integrals == null) {
+            return null;
+        }
+        return broadcastSlot.integrals.get(accountId);
+    }
+
+    private IntegralInfo toIntegralInfo(SnakeEntity snake) {
         IntegralInfo info = new IntegralInfo();
         info.setLastVersion(currentVersion);
         info.setGameName(snake.getGameName());
@@ -591,7 +776,7 @@ public class SnakeGameEngine {
         return currentVersion;
     }
     //TODO BUG 复活点位 可能已经被占用
-    public void doResurgence(String accountId) {
+    private void resurgenceSnake(String accountId) {
         if(!snakes.containsKey(accountId)){
             this.logger.warn("角色复活失败，找不到指定帐户 ID:{}", accountId);
             return ;
@@ -602,43 +787,19 @@ public class SnakeGameEngine {
         }
         int max = Math.min(mapWidth, mapHeight) - 10;
         int min = 10;
-        Random random = new Random();
         // 随机生成 出生点位
         int startPoint = random.nextInt(max - min + 1) + min;
         snakes.get(accountId).resurgence(startPoint,3);
         this.logger.info("角色复活 ID:{} 出生点位:{} 初始节点:{}", accountId, startPoint, 3);
     }
 
-    // 地图标记位
-    static class Mark {
-        public int snakeNodes = 0;
-        public int footNode = 0;//1,2,3,4,5
-
-        private boolean isEmpty() {
-            return snakeNodes <= 0 && footNode <= 0;
-        }
-    }
-
-
-    private static class Food {
-        // 当前位位置
-        private Integer[] point;
-        private int type;// 加速 、麻痹
-
-        public Food(Integer[] point, int type) {
-            this.point = point;
-            this.type = type;
-        }
-    }
-
     public static interface SnakeGameListener {
         /**
          * 地图版本变更
          *
-         * @param changeData
-         * @param currentData
+         * @param delta 版本变更
          */
-        public void versionChange(VersionData changeData, VersionData currentData);
+        public void versionChange(VersionDelta delta);
 
         /**
          * 积分变更
@@ -653,5 +814,10 @@ public class SnakeGameEngine {
          * @param events
          */
         public void noticeEvent(GameEvent[] events);
+
+        /**
+         * 本次广播的通知已全部发出,批量写出的数据在此一次刷新
+         */
+        public void flush();
     }
 }
@@ -2,74 +2,258 @@ package com.tuling.netty.snake_game;
 
 
 import com.alibaba.fastjson.JSON;
+import com.tuling.netty.common.WebSocketDeflate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.group.ChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 处理TextWebSocketFrame
+ * 处理玩家指令,文本指令见 CommandDecoder,二进制指令见 BinaryProtocol
  */
 public class SnakeGameHandler extends
-        SimpleChannelInboundHandler<TextWebSocketFrame> {
+        SimpleChannelInboundHandler<WebSocketFrame> {
     static final Logger logger = LoggerFactory.getLogger(SnakeGameEngine.class);
 
-    private final ChannelGroup channels;
-    private final SnakeGameEngine gameEngine;
+    // 通道当前所在房间
+    static final AttributeKey<GameRoom> ROOM = AttributeKey.valueOf("snake.room");
+    // 通道是否使用二进制协议接收版本变更,见 BinaryProtocol
+    static final AttributeKey<Boolean> BINARY = AttributeKey.valueOf("snake.binary");
+    // 通道版本同步状态,进入房间时重置
+    static final AttributeKey<ChannelSyncState> SYNC = AttributeKey.valueOf("snake.sync");
 
-    public SnakeGameHandler(SnakeGameEngine gameEngine, ChannelGroup channels) {
-        this.channels = channels;
-        this.gameEngine = gameEngine;
+    private final GameRoomManager rooms;
+
+    public SnakeGameHandler(GameRoomManager rooms) {
+        this.rooms = rooms;
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx,
-                                TextWebSocketFrame msg) throws Exception { // (1)
-
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame msg) throws Exception { // (1)
         Channel incoming = ctx.channel();
-        logger.debug("接收数据  地址:{},id:{},文本:{}", incoming.remoteAddress(), incoming.id().asShortText(), msg.text());
+        if (msg instanceof TextWebSocketFrame) {
+            readCommand(incoming, msg.content());
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            readBinaryCommand(incoming, msg.content());
+        }
+    }
 
-        String cmdText = msg.text().trim();
-        int splitTindex;
-        if ((splitTindex = cmdText.indexOf(":")) < 0) {
-            logger.error("异常指令:{}", cmdText);
+    /**
+     * 文本指令 格式 指令:数据,直接在 ByteBuf 上解析
+     */
+    private void readCommand(Channel incoming, ByteBuf buf) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("接收数据  地址:{},id:{},文本:{}", incoming.remoteAddress(), incoming.id().asShortText(),
+                    buf.toString(CharsetUtil.UTF_8));
+        }
+        int start = CommandDecoder.trimStart(buf, buf.readerIndex(), buf.writerIndex());
+        int end = CommandDecoder.trimEnd(buf, start, buf.writerIndex());
+        int split = buf.indexOf(start, end, (byte) ':');
+        if (split < 0) {
+            logger.error("异常指令:{}", buf.toString(CharsetUtil.UTF_8));
             return;
         }
-        String cmd = cmdText.substring(0, splitTindex);
-        String cmdData = cmdText.substring(splitTindex + 1);
-
-        if (cmd.equals("JOIN")) {
-            gameEngine.newSnake(incoming.id().asShortText(), cmdData);
-        } else if (cmd.equals("CONTROL")) {
-            gameEngine.controlSnake(incoming.id().asShortText(), Integer.parseInt(cmdData));
-        } else if (cmd.equals("FULL")) { // 全量刷新
-            String fullData = JSON.toJSONString(gameEngine.getCurrentMapData(false));
-            fullData="version\r\n"+fullData;
-            incoming.writeAndFlush(new TextWebSocketFrame(fullData));
-        } else if (cmd.equals("QUANTITATIVE")) {// 定量更新
-            String[] vTexts = cmdData.split(",");
-            Long versions[] = new Long[vTexts.length];
-
-            for (int i = 0; i < vTexts.length; i++) {
-                versions[i] = Long.parseLong(vTexts[i]);
+        int cmd = CommandDecoder.command(buf, start, split);
+        int data = split + 1;
+        GameRoom room = incoming.attr(ROOM).get();
+        SnakeGameEngine gameEngine = room.getGameEngine();
+        // 开启兴趣区域时不发送整个地图,由下一次广播补发视野内的区块
+        boolean interest = room.getInterestArea() != null;
+
+        switch (cmd) {
+            case CommandDecoder.JOIN:
+                join(incoming, buf.toString(data, end - data, CharsetUtil.UTF_8));
+                break;
+            case CommandDecoder.CONTROL:
+                gameEngine.controlSnake(incoming.id().asShortText(), CommandDecoder.parseInt(buf, data, end));
+                break;
+            case CommandDecoder.FULL: // 全量刷新
+                if (interest) {
+                    syncState(incoming).resync(0);
+                } else {
+                    sendFull(incoming, gameEngine);
+                }
+                break;
+            case CommandDecoder.RANGE: { // 区间更新 格式 起始版本..结束版本,省略结束版本时到最新版本
+                int dots = CommandDecoder.rangeSeparator(buf, data, end);
+                long from = CommandDecoder.parseLong(buf, data, dots);
+                if (interest) {
+                    syncState(incoming).resync(from - 1);
+                    break;
+                }
+                long to = dots + 2 < end ? CommandDecoder.parseLong(buf, dots + 2, end) : 0;
+                VersionDelta delta = gameEngine.getVersionRange(from, to);
+                if (delta != null) {
+                    sendDelta(incoming, delta);
+                } else { // 区间内的版本已不在历史中
+                    sendFull(incoming, gameEngine);
+                }
+                break;
+            }
+            case CommandDecoder.QUANTITATIVE: // 定量更新 格式 版本号,版本号...
+                for (int i = data; i < end; ) {
+                    int comma = buf.indexOf(i, end, (byte) ',');
+                    if (comma < 0) {
+                        comma = end;
+                    }
+                    long version = CommandDecoder.parseLong(buf, i, comma);
+                    if (interest) {
+                        syncState(incoming).resync(version - 1);
+                        break;
+                    }
+                    VersionDelta delta = gameEngine.getVersion(version);
+                    if (delta != null) {
+                        sendDelta(incoming, delta);
+                    }
+                    i = comma + 1;
+                }
+                break;
+            case CommandDecoder.ACK: // 确认已作画的版本
+                syncState(incoming).ack(CommandDecoder.parseLong(buf, data, end));
+                break;
+            case CommandDecoder.RESURGENCE: // 复活角色
+                gameEngine.doResurgence(incoming.id().asShortText());
+                break;
+            default:
+                logger.error("异常指令:{}", buf.toString(CharsetUtil.UTF_8));
+        }
+    }
+
+    /**
+     * 二进制指令,见 BinaryProtocol.CMD_CONTROL
+     */
+    private void readBinaryCommand(Channel incoming, ByteBuf buf) {
+        if (buf.readableBytes() == 2 && buf.getByte(buf.readerIndex()) == BinaryProtocol.CMD_CONTROL) {
+            GameRoom room = incoming.attr(ROOM).get();
+            room.getGameEngine().controlSnake(incoming.id().asShortText(), buf.getUnsignedByte(buf.readerIndex() + 1));
+        } else {
+            logger.error("异常二进制指令 长度:{}", buf.readableBytes());
+        }
+    }
+
+    // 加入游戏 格式 游戏名称[;room=房间号][;proto=bin]
+    private void join(Channel incoming, String cmdData) {
+        String[] options = cmdData.split(";");
+        String roomId = GameRoomManager.DEFAULT_ROOM;
+        boolean binary = false;
+        for (int i = 1; i < options.length; i++) {
+            if (options[i].startsWith("room=")) {
+                roomId = options[i].substring(5);
+            } else if (options[i].equals("proto=bin")) {
+                binary = true;
+            }
+        }
+        incoming.attr(BINARY).set(binary);
+        GameRoom room = joinRoom(incoming, roomId);
+        room.getGameEngine().newSnake(incoming.id().asShortText(), options[0]);
+    }
+
+    // 按通道协议发送版本变更
+    static void sendDelta(Channel incoming, VersionDelta delta) {
+        sendDelta(incoming, delta, null);
+    }
+
+    /**
+     * @param batch 广播中的批量写,为空时立即写出并刷新
+     */
+    static void sendDelta(Channel incoming, VersionDelta delta, OutboundBatch batch) {
+        ChannelFutureListener listener = syncState(incoming).sent(delta.getVersion());
+        if (isBinary(incoming)) {
+            ByteBuf buf = incoming.alloc().buffer();
+            BinaryProtocol.writeDelta(buf, delta);
+            write(incoming, new BinaryWebSocketFrame(buf), listener, batch);
+        } else {
+            ByteBuf buf = ByteBufUtil.writeUtf8(incoming.alloc(), "version\r\n" + JSON.toJSONString(delta.toVersionData()));
+            write(incoming, new TextWebSocketFrame(buf), listener, batch);
+        }
+    }
+
+    static void sendFull(Channel incoming, SnakeGameEngine gameEngine) {
+        sendFull(incoming, gameEngine, null);
+    }
+
+    // 同一版本的全量数据只编码一次
+    static void sendFull(Channel incoming, SnakeGameEngine gameEngine, OutboundBatch batch) {
+        MapSnapshot snapshot = gameEngine.getSnapshot();
+        long version;
+        byte[] fullData;
+        synchronized (snapshot) {
+            version = snapshot.getVersion();
+            fullData = isBinary(incoming) ? snapshot.getBinaryFrame() : snapshot.getTextFrame();
+        }
+        ChannelFutureListener listener = syncState(incoming).sent(version);
+        if (isBinary(incoming)) {
+            write(incoming, new BinaryWebSocketFrame(Unpooled.wrappedBuffer(fullData)), listener, batch);
+        } else {
+            write(incoming, new TextWebSocketFrame(Unpooled.wrappedBuffer(fullData)), listener, batch);
+        }
+    }
+
+    private static void write(Channel incoming, Object frame, ChannelFutureListener listener, OutboundBatch batch) {
+        if (batch != null) {
+            batch.write(incoming, frame, listener);
+        } else {
+            incoming.writeAndFlush(frame).addListener(listener);
+        }
+    }
+
+    static ChannelSyncState syncState(Channel channel) {
+        ChannelSyncState state = channel.attr(SYNC).get();
+        if (state == null) {
+            ChannelSyncState old = channel.attr(SYNC).setIfAbsent(state = new ChannelSyncState());
+            if (old != null) {
+                state = old;
             }
+        }
+        return state;
+    }
+
+    static boolean isBinary(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(BINARY).get());
+    }
 
-            for (VersionData s : gameEngine.getVersion(versions)) {
-                incoming.writeAndFlush(new TextWebSocketFrame("version\r\n"+JSON.toJSONString(s)));
+    /**
+     * 切换通道所在房间,先进入新房间再离开原房间,原房间中的角色随之离线。
+     * 房间在加入前被关闭时重新获取房间
+     */
+    private GameRoom joinRoom(Channel incoming, String roomId) {
+        GameRoom old = incoming.attr(ROOM).get();
+        GameRoom room;
+        do {
+            room = rooms.getRoom(roomId);
+            if (room == old) {
+                return room;
             }
-        } else if (cmd.equals("RESURGENCE")) { // 复活角色
-            gameEngine.doResurgence(incoming.id().asShortText());
+            // 不同房间的版本号互不相关
+            incoming.attr(SYNC).set(new ChannelSyncState());
+            incoming.attr(WebSocketDeflate.ENABLED).set(room.isCompression());
+        } while (!room.join(incoming));
+        incoming.attr(ROOM).set(room);
+        if (old != null) {
+            old.getChannels().remove(incoming);
+            old.getGameEngine().offlineSnake(incoming.id().asShortText());
+            rooms.releaseRoom(old);
         }
+        logger.info("Client:{} 进入房间:{}", incoming.remoteAddress(), room.getRoomId());
+        return room;
     }
 
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) throws Exception {  // (2)
         Channel incoming = ctx.channel();
         logger.info("[SERVER] - " + incoming.remoteAddress() + "加入");
-        channels.add(incoming);
+        // 未指定房间前 进入默认房间观战
+        joinRoom(incoming, GameRoomManager.DEFAULT_ROOM);
     }
 
     @Override
@@ -88,6 +272,13 @@ public class SnakeGameHandler extends
     public void channelInactive(ChannelHandlerContext ctx) throws Exception { // (6)
         Channel incoming = ctx.channel();
         logger.info("Client:" + incoming.remoteAddress() + "掉线");
+        GameRoom room = incoming.attr(ROOM).get();
+        if (room != null) {
+            // 掉线的角色随之离线,不再参与构建与排行
+            room.getChannels().remove(incoming);
+            room.getGameEngine().offlineSnake(incoming.id().asShortText());
+            rooms.releaseRoom(room);
+        }
     }
 
     @Override
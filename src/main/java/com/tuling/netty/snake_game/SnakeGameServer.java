@@ -1,22 +1,16 @@
 package com.tuling.netty.snake_game;
 
-import com.alibaba.fastjson.JSON;
+import com.tuling.netty.common.Allocators;
+import com.tuling.netty.common.WebSocketDeflate;
+import com.tuling.netty.common.Transport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
-import io.netty.util.concurrent.GlobalEventExecutor;
-import org.springframework.beans.BeanUtils;
-
-import java.util.Arrays;
 
 /**
  * Websocket 聊天服务器-服务端
@@ -24,42 +18,41 @@ import java.util.Arrays;
 public class SnakeGameServer {
 
     private int port;
-    final SnakeGameEngine gameEngine;
-    private final ChannelGroup channels;
+    final GameRoomManager rooms;
 
     public SnakeGameServer(int port) {
         this.port = port;
-        gameEngine = new SnakeGameEngine(60, 60, 500);
-        channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        rooms = new GameRoomManager(60, 60, 500);
+        // -Dsnake.pipeline=blocking|sleeping|yielding|busy-spin 开启流水线构建
+        rooms.setPipelineWaitStrategy(System.getProperty("snake.pipeline"));
+        // -Dsnake.catchup=SKIP|COMPRESS|MULTI_STEP 时钟落后时的追赶策略
+        rooms.setCatchUp(GameClock.CatchUp.valueOf(System.getProperty("snake.catchup", "SKIP")),
+                Integer.getInteger("snake.catchup.steps", 3));
+        // -Dsnake.aoi=区块大小,视野半径 开启兴趣区域,大地图时每个玩家只接收视野内的变更
+        String aoi = System.getProperty("snake.aoi");
+        if (aoi != null) {
+            String[] values = aoi.split(",");
+            rooms.setInterestArea(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()));
+        }
+        // -Dsnake.slow=COALESCE|DROP 通道不可写时合并或丢弃变更,持续不可写超过 snake.slow.timeout 毫秒后断开
+        rooms.setSlowConsumerPolicy(new SlowConsumerPolicy(
+                SlowConsumerPolicy.Mode.valueOf(System.getProperty("snake.slow", "COALESCE")),
+                Long.getLong("snake.slow.timeout", 10000)));
+        // -Dsnake.deflate=false 关闭新建房间的 WebSocket 压缩
+        rooms.setCompression(Boolean.parseBoolean(System.getProperty("snake.deflate", "true")));
     }
 
     public void run() throws Exception {
-        // 启动 游戏引擎
-        gameEngine.start();
-        gameEngine.setListener(new SnakeGameEngine.SnakeGameListener() {
-            @Override
-            public void versionChange(VersionData changeData, VersionData currentData) {
-                sendVersionData(changeData);
-            }
-
-            @Override
-            public void statusChange(GameStatistics statistics) {
-                sendStatusData(statistics);
-            }
-
-            @Override
-            public void noticeEvent(GameEvent[] events) {
-                sendEvent(events);
-            }
-        });
-
-        EventLoopGroup bossGroup = new NioEventLoopGroup(2); // (1)
-        EventLoopGroup workerGroup = new NioEventLoopGroup(3);
+        // 传输层先于游戏引擎创建,分配器的泄漏统计需在首次创建 ByteBuf 之前加载
+        Transport transport = Transport.create("snake", 2, 3); // (1)
         try {
-            ServerBootstrap b = new ServerBootstrap(); // (2)
-            b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class) // (3)
-                    .childHandler(new ChannelInitializer() {
+            // 启动 默认房间的游戏引擎
+            rooms.start();
+            // 各房间的压缩率随分配器统计定期输出
+            Allocators.addStatsSource(rooms);
+
+            ServerBootstrap b = transport.serverBootstrap(128); // (2)(3)(5)
+            b.childHandler(new ChannelInitializer() {
                         @Override
                         protected void initChannel(Channel ch) throws Exception {
                             ChannelPipeline pipeline = ch.pipeline();
@@ -67,71 +60,31 @@ public class SnakeGameServer {
                             pipeline.addLast("http-aggregator", new HttpObjectAggregator(65536));
                             pipeline.addLast("http-encodec", new HttpResponseEncoder());
                             pipeline.addLast("http-chunked", new ChunkedWriteHandler());
+                            pipeline.addLast("WebSocket-deflate", WebSocketDeflate.newHandler());
                             pipeline.addLast("http-request", new HttpRequestHandler("/ws"));
                             pipeline.addLast("WebSocket-protocol", new WebSocketServerProtocolHandler("/ws"));
-                            pipeline.addLast("WebSocket-request", new SnakeGameHandler(gameEngine, channels));
+                            pipeline.addLast("WebSocket-request", new SnakeGameHandler(rooms));
                         }
                     })  //(4)
-                    .option(ChannelOption.SO_BACKLOG, 128)          // (5)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true); // (6)
+                    .childOption(ChannelOption.SO_KEEPALIVE, true) // (6)
+                    // 出站缓冲超过高水位后通道不可写,低于低水位后恢复
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            Integer.getInteger("snake.water.low", 32 * 1024),
+                            Integer.getInteger("snake.water.high", 128 * 1024)));
 
             System.out.println("SnakeGameServer 启动了" + port);
             // 绑定端口，开始接收进来的连接
-            ChannelFuture f = b.bind(port).sync(); // (7)
+            ChannelGroup acceptors = transport.bind(b, port); // (7)
             // 等待服务器  socket 关闭 。
-            f.channel().closeFuture().sync();
+            acceptors.newCloseFuture().sync();
         } finally {
-            workerGroup.shutdownGracefully();
-            bossGroup.shutdownGracefully();
+            transport.shutdown();
+            Allocators.removeStatsSource(rooms);
+            rooms.shutdown();
             System.out.println("SnakeGameServer 关闭了");
         }
     }
 
-    private void sendEvent(GameEvent[] events) {
-        String prefix = "event\r\n";
-        for (Channel channel : channels) {
-            for (GameEvent event : events) {
-                if (event.getAccountId() == null ||
-                        event.getAccountId().equals(channel.id().asShortText())) {
-                    channel.writeAndFlush(new TextWebSocketFrame(prefix+JSON.toJSONString(event)));
-                }
-            }
-        }
-    }
-
-    private void sendVersionData(VersionData data) {
-        VersionData copy=new VersionData(); // 副本
-        BeanUtils.copyProperties(data,copy);
-        String str = JSON.toJSONString(data);
-        // 前缀
-        String prefix = "version\r\n";
-        String[] cmds,cmdDatas;
-        for (Channel channel : channels) {
-            DrawingCommand cmd = gameEngine.getDrawingCommand(channel.id().asShortText());
-            if (cmd != null) {
-                // 基于当前角色通道的 特殊作画指令
-                cmds = Arrays.copyOf(data.getCmds(), data.getCmds().length + 1);
-                cmds[cmds.length - 1] = cmd.getCmd();
-                cmdDatas = Arrays.copyOf(data.getCmdDatas(), data.getCmdDatas().length + 1);
-                cmdDatas[cmdDatas.length - 1] = cmd.getCmdData();
-                copy.setCmds(cmds);
-                copy.setCmdDatas(cmdDatas);
-                channel.writeAndFlush(new TextWebSocketFrame(prefix + JSON.toJSONString(copy)));
-            } else {
-                channel.writeAndFlush(new TextWebSocketFrame(str));
-            }
-        }
-    }
-
-    private void sendStatusData(GameStatistics statistics) {
-        String prefix = "status\r\n";
-        for (Channel channel : channels) {
-            IntegralInfo info = gameEngine.getIntegralInfoByAccountId(channel.id().asShortText());
-            statistics.setCurrent(info);
-            channel.writeAndFlush(new TextWebSocketFrame(prefix + JSON.toJSONString(statistics)));
-        }
-    }
-
     public static void main(String[] args) throws Exception {
         int port;
         if (args.length > 0) {
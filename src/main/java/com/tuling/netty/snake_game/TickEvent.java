@@ -0,0 +1,79 @@
+package com.tuling.netty.snake_game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 时钟槽位
+ * 一次地图构建在各阶段之间传递的数据,槽位预先分配并循环使用。
+ * 模拟阶段之后的阶段只读取槽位中的数据,不再访问地图与角色
+ */
+class TickEvent {
+    // 槽位所属引擎,流水线模式下由发布线程设置
+    SnakeGameEngine engine;
+    // 输入阶段:本次构建执行的玩家指令
+    final List<GameCommand> commands = new ArrayList<>();
+    // 模拟步数,多步的变更合并为一个版本
+    int steps = 1;
+    // 模拟阶段:所有步中变更过的格子
+    final IntList changeNodes = new IntList();
+    // 模拟阶段:新版本号,0 表示地图没有变更
+    long version;
+    long time;
+    // 模拟阶段:按变更后的格子内容分类的变更格子
+    final IntList bodyNodes = new IntList();
+    final IntList foodNodes = new IntList();
+    final IntList clearNodes = new IntList();
+    // 模拟阶段:按角色ID存放的蛇头位点及对应角色,角色ID会被回收复用
+    int[] heads = new int[16];
+    SnakeEntity[] headOwners = new SnakeEntity[16];
+    int headCount;
+    // 模拟阶段:到达刷新间隔时的状态统计与事件
+    GameStatistics statistics;
+    GameEvent[] events;
+    // 模拟阶段:与状态统计同时记录的各角色积分与名次,按帐户ID存放
+    Map<String, IntegralInfo> integrals;
+    // 编码阶段:版本变更数据
+    VersionDelta delta;
+    // 发布时间(纳秒),用于统计整体延迟
+    long publishTime;
+
+    void reset() {
+        engine = null;
+        commands.clear();
+        steps = 1;
+        changeNodes.clear();
+        version = 0;
+        time = 0;
+        bodyNodes.clear();
+        foodNodes.clear();
+        clearNodes.clear();
+        Arrays.fill(headOwners, 0, headCount, null);
+        headCount = 0;
+        statistics = null;
+        events = null;
+        integrals = null;
+        delta = null;
+        publishTime = 0;
+    }
+
+    /**
+     * @param snake 角色,空闲的ID为空
+     */
+    void addHead(SnakeEntity snake) {
+        if (headCount == heads.length) {
+            heads = Arrays.copyOf(heads, heads.length * 2);
+            headOwners = Arrays.copyOf(headOwners, heads.length);
+        }
+        headOwners[headCount] = snake;
+        heads[headCount++] = snake == null ? MapGrid.OUTSIDE : snake.getHead();
+    }
+
+    // 指定角色的蛇头位点,角色在该次构建之后加入或ID已被其他角色复用时返回 MapGrid.OUTSIDE
+    int getHead(SnakeEntity snake) {
+        int id = snake.getId();
+        return id < headCount && headOwners[id] == snake ? heads[id] : MapGrid.OUTSIDE;
+    }
+}
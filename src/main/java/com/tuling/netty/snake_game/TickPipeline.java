@@ -0,0 +1,250 @@
+package com.tuling.netty.snake_game;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 地图构建流水线
+ * 一次构建拆分为 输入 → 模拟 → 编码 → 广播 四个阶段,各阶段在独立线程中按顺序处理预分配的时钟槽位,
+ * 第 N 次构建编码与广播的同时即可模拟第 N+1 次构建。
+ * 地图与角色只在模拟阶段中修改,编码与广播阶段只读取槽位中的数据。
+ * 多个引擎(房间)可以共用一条流水线,槽位记录所属引擎,流水线固定占用 4 个线程,不随房间数增长;
+ * 同一引擎的时钟依次发布,各阶段按发布顺序处理,因此每个引擎内部仍然只有一个模拟线程。
+ * 每个引擎同时占用的槽位数有上限,落后的引擎只会丢弃自己的时钟,不会占满槽位使其他引擎丢弃时钟
+ */
+public class TickPipeline {
+    static final Logger logger = LoggerFactory.getLogger(TickPipeline.class);
+    public static final int DEFAULT_RING_SIZE = 8;
+
+    private final Disruptor<TickEvent> disruptor;
+    private final ExecutorService executor;
+    private RingBuffer<TickEvent> ringBuffer;
+
+    private final StageStats inputStats = new StageStats("input");
+    private final StageStats simulateStats = new StageStats("simulate");
+    private final StageStats encodeStats = new StageStats("encode");
+    private final StageStats broadcastStats = new StageStats("broadcast");
+    // 发布到广播完成的整体延迟
+    private final StageStats totalStats = new StageStats("total");
+    // 槽位已满或引擎占用的槽位达到上限而丢弃的时钟次数,由各引擎的时钟线程累加
+    private final AtomicLong overruns = new AtomicLong();
+    // 单个引擎最多同时占用的槽位数
+    private final int maxInFlight;
+
+    /**
+     * 单个引擎使用的流水线
+     *
+     * @param ringSize     槽位数量,必须为 2 的幂
+     * @param waitStrategy 阶段线程等待策略
+     */
+    public TickPipeline(int ringSize, WaitStrategy waitStrategy) {
+        this(ringSize, ringSize, waitStrategy);
+    }
+
+    /**
+     * @param ringSize     槽位数量,必须为 2 的幂,多个引擎共用时按引擎数预留
+     * @param maxInFlight  单个引擎最多同时占用的槽位数
+     * @param waitStrategy 阶段线程等待策略
+     */
+    public TickPipeline(int ringSize, int maxInFlight, WaitStrategy waitStrategy) {
+        this.maxInFlight = maxInFlight;
+        this.executor = Executors.newFixedThreadPool(4, new DefaultThreadFactory("snake-pipeline"));
+        this.disruptor = new Disruptor<>(new EventFactory<TickEvent>() {
+            @Override
+            public TickEvent newInstance() {
+                return new TickEvent();
+            }
+        }, ringSize, executor, ProducerType.MULTI, waitStrategy);
+        disruptor.handleEventsWith(stage(new EventHandler<TickEvent>() {
+            @Override
+            public void onEvent(TickEvent event, long sequence, boolean endOfBatch) {
+                long begin = System.nanoTime();
+                event.engine.input(event);
+                inputStats.record(System.nanoTime() - begin);
+            }
+        })).then(stage(new EventHandler<TickEvent>() {
+            @Override
+            public void onEvent(TickEvent event, long sequence, boolean endOfBatch) {
+                long begin = System.nanoTime();
+                event.engine.simulate(event);
+                simulateStats.record(System.nanoTime() - begin);
+            }
+        })).then(stage(new EventHandler<TickEvent>() {
+            @Override
+            public void onEvent(TickEvent event, long sequence, boolean endOfBatch) {
+                long begin = System.nanoTime();
+                try {
+                    event.engine.encode(event);
+                } catch (Throwable e) {
+                    logger.error("版本编码异常", e);
+                }
+                encodeStats.record(System.nanoTime() - begin);
+            }
+        })).then(stage(new EventHandler<TickEvent>() {
+            @Override
+            public void onEvent(TickEvent event, long sequence, boolean endOfBatch) {
+                long begin = System.nanoTime();
+                try {
+                    event.engine.broadcast(event);
+                } finally {
+                    // 广播完成后释放引擎占用的槽位
+                    event.engine.pipelineTicks.decrementAndGet();
+                }
+                long end = System.nanoTime();
+                broadcastStats.record(end - begin);
+                totalStats.record(end - event.publishTime);
+            }
+        }));
+    }
+
+    // 单个阶段的处理器数组,避免可变参数创建泛型数组
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static EventHandler<TickEvent>[] stage(EventHandler<TickEvent> handler) {
+        return new EventHandler[]{handler};
+    }
+
+    /**
+     * 按名称创建等待策略
+     *
+     * @param name blocking(默认)、sleeping、yielding、busy-spin
+     */
+    public static WaitStrategy waitStrategy(String name) {
+        if ("sleeping".equals(name)) {
+            return new SleepingWaitStrategy();
+        } else if ("yielding".equals(name)) {
+            return new YieldingWaitStrategy();
+        } else if ("busy-spin".equals(name)) {
+            return new BusySpinWaitStrategy();
+        }
+        return new BlockingWaitStrategy();
+    }
+
+    public void start() {
+        ringBuffer = disruptor.start();
+    }
+
+    /**
+     * 发布引擎的一次时钟,同一引擎只能在一个线程中依次调用(如引擎的时钟任务)。
+     * 流水线落后导致槽位全部被占用,或该引擎占用的槽位达到上限时放弃本次时钟,不阻塞时钟线程
+     *
+     * @param steps 模拟步数
+     * @return 是否发布成功
+     */
+    public boolean publish(SnakeGameEngine engine, int steps) {
+        // 只有该引擎的时钟线程增加计数,检查后增加不会超出上限
+        if (engine.pipelineTicks.get() >= maxInFlight) {
+            overruns.incrementAndGet();
+            logger.debug("引擎占用的流水线槽位已达上限,跳过本次时钟");
+            return false;
+        }
+        long sequence;
+        try {
+            sequence = ringBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            overruns.incrementAndGet();
+            logger.debug("流水线槽位已满,跳过本次时钟");
+            return false;
+        }
+        engine.pipelineTicks.incrementAndGet();
+        TickEvent event = ringBuffer.get(sequence);
+        event.reset();
+        event.engine = engine;
+        event.steps = steps;
+        event.publishTime = System.nanoTime();
+        ringBuffer.publish(sequence);
+        return true;
+    }
+
+    // 处理完已发布的槽位后停止阶段线程
+    public void shutdown() {
+        disruptor.shutdown();
+        executor.shutdown();
+        logger.info("流水线停止 {} {} {} {} {} overruns={}",
+                inputStats, simulateStats, encodeStats, broadcastStats, totalStats, overruns.get());
+    }
+
+    public StageStats getInputStats() {
+        return inputStats;
+    }
+
+    public StageStats getSimulateStats() {
+        return simulateStats;
+    }
+
+    public StageStats getEncodeStats() {
+        return encodeStats;
+    }
+
+    public StageStats getBroadcastStats() {
+        return broadcastStats;
+    }
+
+    public StageStats getTotalStats() {
+        return totalStats;
+    }
+
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * 阶段耗时统计,只由对应阶段线程写入
+     */
+    public static class StageStats {
+        private final String name;
+        private volatile long count;
+        private volatile long totalNanos;
+        private volatile long maxNanos;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        // 平均耗时(纳秒)
+        public long getAvgNanos() {
+            long c = count;
+            return c == 0 ? 0 : totalNanos / c;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[count=" + count + ",avg=" + getAvgNanos() / 1000 + "us,max=" + maxNanos / 1000 + "us]";
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class VersionData implements Cloneable{
     private long version;// 版本号
     private long time; // 版本构建时间
     private Boolean full;
+    private Long fromVersion; // 合并多个版本时的起始版本
     private String cmds[]; // 命令
     private String cmdDatas[];// 命令数据
 
@@ -44,6 +45,14 @@ public class VersionData implements Cloneable{
         this.full = full;
     }
 
+    public Long getFromVersion() {
+        return fromVersion;
+    }
+
+    public void setFromVersion(Long fromVersion) {
+        this.fromVersion = fromVersion;
+    }
+
     public String[] getCmds() {
         return cmds;
     }
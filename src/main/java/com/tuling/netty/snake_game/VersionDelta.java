@@ -0,0 +1,124 @@
+package com.tuling.netty.snake_game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 版本变更
+ * 以排序去重后的格子索引存放一个版本中变更的格子,编码阶段不再拼接字符串。
+ * 文本协议所需的 VersionData 在第一次使用时生成并缓存
+ */
+public class VersionDelta {
+    private final long version;
+    // 合并多个版本时的起始版本,单个版本时与 version 相同
+    private final long fromVersion;
+    private final long time;
+    private final int width;
+    // 变更后为蛇身、食物、空位的格子
+    private final int[] bodyNodes;
+    private final int[] foodNodes;
+    private final int[] clearNodes;
+    private volatile VersionData versionData;
+
+    public VersionDelta(long version, long time, int width, int[] bodyNodes, int[] foodNodes, int[] clearNodes) {
+        this(version, version, time, width, bodyNodes, foodNodes, clearNodes);
+    }
+
+    public VersionDelta(long fromVersion, long version, long time, int width,
+                        int[] bodyNodes, int[] foodNodes, int[] clearNodes) {
+        this.fromVersion = fromVersion;
+        this.version = version;
+        this.time = time;
+        this.width = width;
+        this.bodyNodes = bodyNodes;
+        this.foodNodes = foodNodes;
+        this.clearNodes = clearNodes;
+    }
+
+    /**
+     * 排序并去除重复的格子索引
+     */
+    static int[] sortedCells(IntList nodes) {
+        int[] cells = nodes.toArray();
+        Arrays.sort(cells);
+        int size = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (size == 0 || cells[i] != cells[size - 1]) {
+                cells[size++] = cells[i];
+            }
+        }
+        return size == cells.length ? cells : Arrays.copyOf(cells, size);
+    }
+
+    /**
+     * 转换为文本协议的版本数据
+     */
+    public VersionData toVersionData() {
+        VersionData vd = versionData;
+        if (vd == null) {
+            List<String> cmds = new ArrayList<>();
+            List<String> cmdDatas = new ArrayList<>();
+            appendCells(cmds, cmdDatas, "Green", bodyNodes);
+            appendCells(cmds, cmdDatas, "Yellow", foodNodes);
+            appendCells(cmds, cmdDatas, "Black", clearNodes);
+            vd = new VersionData(version, time);
+            vd.setCmds(cmds.toArray(new String[cmds.size()]));
+            vd.setCmdDatas(cmdDatas.toArray(new String[cmdDatas.size()]));
+            vd.setFull(false);
+            if (isMerged()) {
+                vd.setFromVersion(fromVersion);
+            }
+            versionData = vd;
+        }
+        return vd;
+    }
+
+    private void appendCells(List<String> cmds, List<String> cmdDatas, String cmd, int[] cells) {
+        if (cells.length == 0) {
+            return;
+        }
+        StringBuilder data = new StringBuilder(cells.length * 6);
+        for (int i = 0; i < cells.length; i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            data.append(cells[i] % width).append(',').append(cells[i] / width);
+        }
+        cmds.add(cmd);
+        cmdDatas.add(data.toString());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getFromVersion() {
+        return fromVersion;
+    }
+
+    // 是否为多个版本合并的变更
+    public boolean isMerged() {
+        return fromVersion != version;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int[] getBodyNodes() {
+        return bodyNodes;
+    }
+
+    public int[] getFoodNodes() {
+        return foodNodes;
+    }
+
+    public int[] getClearNodes() {
+        return clearNodes;
+    }
+}
@@ -0,0 +1,141 @@
+package com.tuling.netty.snake_game;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 版本历史
+ * 固定大小的环形数组,版本 v 存放在 v % capacity 位置,按版本号 O(1) 查找。
+ * 编码阶段写入,IO 线程读取
+ */
+public class VersionHistory {
+    // 合并区间时按线程复用的暂存数组,IO 线程与广播阶段可能同时合并
+    private static final ThreadLocal<MergeScratch> scratch = new ThreadLocal<MergeScratch>() {
+        @Override
+        protected MergeScratch initialValue() {
+            return new MergeScratch();
+        }
+    };
+
+    private final AtomicReferenceArray<VersionDelta> ring;
+    private final int capacity;
+    private volatile long latest;
+
+    public VersionHistory(int capacity) {
+        this.capacity = capacity;
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    // 归档一个版本,版本需递增
+    public void add(VersionDelta delta) {
+        ring.set(slot(delta.getVersion()), delta);
+        latest = delta.getVersion();
+    }
+
+    /**
+     * @return 指定版本,已被覆盖或不存在时返回空
+     */
+    public VersionDelta get(long version) {
+        if (version <= 0 || version > latest) {
+            return null;
+        }
+        VersionDelta delta = ring.get(slot(version));
+        return delta != null && delta.getVersion() == version ? delta : null;
+    }
+
+    /**
+     * 合并区间内的所有版本,同一格子只保留最后的内容
+     *
+     * @param from 起始版本(含)
+     * @param to   结束版本(含)
+     * @return 合并后的版本,fromVersion 为 from;区间内有版本已被覆盖时返回空
+     */
+    public VersionDelta merge(long from, long to) {
+        if (from > to || to - from >= capacity) {
+            return null;
+        }
+        VersionDelta first = get(from);
+        if (first == null) {
+            return null;
+        }
+        if (from == to) {
+            return first;
+        }
+        MergeScratch cells = scratch.get();
+        long time = 0;
+        int width = first.getWidth();
+        try {
+            for (long v = from; v <= to; v++) {
+                VersionDelta delta = get(v);
+                if (delta == null) {
+                    return null;
+                }
+                cells.put(delta.getBodyNodes(), MapSnapshot.BODY);
+                cells.put(delta.getFoodNodes(), MapSnapshot.FOOD);
+                cells.put(delta.getClearNodes(), MapSnapshot.EMPTY);
+                time = delta.getTime();
+            }
+            for (int i = 0; i < cells.touched.size(); i++) {
+                int cell = cells.touched.get(i);
+                byte kind = (byte) (cells.kinds[cell] - 1);
+                if (kind == MapSnapshot.BODY) {
+                    cells.body.add(cell);
+                } else if (kind == MapSnapshot.FOOD) {
+                    cells.food.add(cell);
+                } else {
+                    cells.clear.add(cell);
+                }
+            }
+            return new VersionDelta(from, to, time, width, VersionDelta.sortedCells(cells.body),
+                    VersionDelta.sortedCells(cells.food), VersionDelta.sortedCells(cells.clear));
+        } finally {
+            cells.reset();
+        }
+    }
+
+    /**
+     * 合并暂存:按格子索引记录最后的内容(内容 + 1,0 表示未变更),只清理变更过的格子
+     */
+    private static class MergeScratch {
+        byte[] kinds = new byte[1024];
+        final IntList touched = new IntList();
+        final IntList body = new IntList();
+        final IntList food = new IntList();
+        final IntList clear = new IntList();
+
+        void put(int[] nodes, byte kind) {
+            for (int node : nodes) {
+                if (node >= kinds.length) {
+                    kinds = Arrays.copyOf(kinds, Math.max(node + 1, kinds.length * 2));
+                }
+                if (kinds[node] == 0) {
+                    touched.add(node);
+                }
+                kinds[node] = (byte) (kind + 1);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touched.size(); i++) {
+                kinds[touched.get(i)] = 0;
+            }
+            touched.clear();
+            body.clear();
+            food.clear();
+            clear.clear();
+        }
+    }
+
+    private int slot(long version) {
+        return (int) (version % capacity);
+    }
+
+    // 最新归档的版本
+    public long getLatest() {
+        return latest;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -1,9 +1,10 @@
 package com.tuling.netty.time_demo;
 
+import com.tuling.netty.common.Allocators;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -28,6 +29,7 @@ public class TimeClient {
         bootstrap.group(group);
         bootstrap.channel(NioSocketChannel.class);
         bootstrap.option(ChannelOption.TCP_NODELAY, true);
+        bootstrap.option(ChannelOption.ALLOCATOR, Allocators.allocator());
         bootstrap.remoteAddress(host, port);
         bootstrap.handler(new ChannelInitializer<SocketChannel>() {
             @Override
@@ -57,9 +59,7 @@ public class TimeClient {
     }
 
     public void sendMessage(String msg) {
-        ByteBuf msgBuf = Unpooled.buffer(msg.getBytes().length);
-        msgBuf.writeBytes(msg.getBytes());
-        client.ctx.writeAndFlush(msgBuf);
+        client.ctx.writeAndFlush(ByteBufUtil.writeUtf8(client.ctx.alloc(), msg));
     }
 
     public void close() {
@@ -73,9 +73,7 @@ public class TimeClient {
         public void channelActive(ChannelHandlerContext ctx) throws Exception {
             super.channelActive(ctx);
             String body = "time";
-            ByteBuf msg = Unpooled.buffer(body.getBytes().length);
-            msg.writeBytes(body.getBytes());
-            ctx.writeAndFlush(msg);
+            ctx.writeAndFlush(ByteBufUtil.writeUtf8(ctx.alloc(), body));
             this.ctx = ctx;
         }
 
@@ -84,6 +82,7 @@ public class TimeClient {
             ByteBuf buf = (ByteBuf) msg;
             byte[] bytes = new byte[buf.readableBytes()];
             buf.readBytes(bytes);
+            buf.release();
             String body = new String(bytes);
             System.out.println("当前服务时间：" + body);
         }
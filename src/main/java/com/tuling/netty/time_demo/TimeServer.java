@@ -1,13 +1,11 @@
 package com.tuling.netty.time_demo;
 
+import com.tuling.netty.common.Transport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoop;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LineBasedFrameDecoder;
 import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
@@ -24,12 +22,8 @@ public class TimeServer {
     // 启动器：ServerBootstrap
     //
     public void openSever(int port) {
-        ServerBootstrap bootstrap = new ServerBootstrap();
-        EventLoopGroup bootGroup = new NioEventLoopGroup(1); //connect \accept \read \write
-        EventLoopGroup workGroup = new NioEventLoopGroup(3);
-        bootstrap.group(bootGroup, workGroup);
-        bootstrap.channel(NioServerSocketChannel.class);
-        bootstrap.option(ChannelOption.SO_BACKLOG, 1024);
+        Transport transport = Transport.create("time", 1, 3); //connect \accept \read \write
+        ServerBootstrap bootstrap = transport.serverBootstrap(1024);
         bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
@@ -38,13 +32,11 @@ public class TimeServer {
         });
         try {
             System.out.println("服务启动成功");
-            ChannelFuture f = bootstrap.bind(port).sync();
-            f.channel().closeFuture().sync();
+            transport.bind(bootstrap, port).newCloseFuture().sync();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        bootGroup.shutdownGracefully();
-        workGroup.shutdownGracefully();
+        transport.shutdown();
     }
 
     private static class TimerServerHandler extends ChannelInboundHandlerAdapter {
@@ -55,6 +47,7 @@ public class TimeServer {
             ByteBuf buf = (ByteBuf) msg;
             byte[] bytes = new byte[buf.readableBytes()];
             buf.readBytes(bytes);
+            buf.release();
             String body = new String(bytes);
             System.out.println("netty 服务端接收消息:" + body);
             String result;
@@ -64,8 +57,7 @@ public class TimeServer {
                 result = "Bad Order!!";
             }
             // 写入流
-            ByteBuf responseBuf = Unpooled.copiedBuffer(result.getBytes());
-            ctx.write(responseBuf);
+            ctx.write(ByteBufUtil.writeUtf8(ctx.alloc(), result));
         }
 
         @Override
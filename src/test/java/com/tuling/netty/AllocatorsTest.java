@@ -0,0 +1,35 @@
+package com.tuling.netty;
+
+import com.tuling.netty.common.Allocators;
+import io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓冲区分配器 池化与统计测试
+ */
+public class AllocatorsTest {
+
+    @Test
+    public void pooledDirectTest() {
+        assertTrue(Allocators.isPooled());
+        long active = Allocators.activeBuffers();
+        // 超过线程本地缓存的规格 直接从 arena 分配
+        ByteBuf buf = Allocators.allocator().buffer(64 * 1024);
+        try {
+            assertTrue(buf.isDirect());
+            assertEquals(active + 1, Allocators.activeBuffers());
+            assertTrue(Allocators.usedDirectMemory() > 0);
+            long used = 0;
+            for (long usage : Allocators.directArenaUsage()) {
+                used += usage;
+            }
+            assertTrue(used >= 64 * 1024);
+        } finally {
+            buf.release();
+        }
+        assertEquals(active, Allocators.activeBuffers());
+    }
+}
@@ -0,0 +1,96 @@
+package com.tuling.netty;
+
+import com.alibaba.fastjson.JSON;
+import com.tuling.netty.snake_game.BinaryProtocol;
+import com.tuling.netty.snake_game.MapSnapshot;
+import com.tuling.netty.snake_game.VersionDelta;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 二进制协议 编解码测试
+ */
+public class BinaryProtocolTest {
+
+    @Test
+    public void deltaTest() {
+        int width = 400;
+        int[] body = new int[200];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = 1000 + i * 37;
+        }
+        VersionDelta delta = new VersionDelta(123456, System.currentTimeMillis(), width,
+                body, new int[]{5, 119999}, new int[0]);
+        ByteBuf buf = Unpooled.buffer();
+        BinaryProtocol.writeDelta(buf, delta);
+        BinaryProtocol.writeHead(buf, 1000);
+        int size = buf.readableBytes();
+
+        assertEquals(BinaryProtocol.TYPE_VERSION, buf.readByte());
+        assertEquals(delta.getVersion(), BinaryProtocol.readVarint(buf));
+        assertEquals(delta.getTime(), BinaryProtocol.readVarint(buf));
+        assertEquals(width, BinaryProtocol.readVarint(buf));
+        assertEquals(BinaryProtocol.OP_BODY, buf.readByte());
+        assertArrayEquals(body, readCells(buf));
+        assertEquals(BinaryProtocol.OP_FOOD, buf.readByte());
+        assertArrayEquals(new int[]{5, 119999}, readCells(buf));
+        // 空分组不写入
+        assertEquals(BinaryProtocol.OP_HEAD, buf.readByte());
+        assertArrayEquals(new int[]{1000}, readCells(buf));
+        assertFalse(buf.isReadable());
+
+        // 远小于文本协议
+        String text = "version\r\n" + JSON.toJSONString(delta.toVersionData());
+        assertTrue(size * 4 < text.length());
+        buf.release();
+    }
+
+    @Test
+    public void snapshotTest() {
+        int width = 400, height = 300;
+        MapSnapshot snapshot = new MapSnapshot(width, height);
+        // 横向的蛇身与零散的食物
+        int[] body = new int[3000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (i / 30) * width * 3 + (i / 30) % 7 * 10 + i % 30;
+        }
+        Random random = new Random(1);
+        int[] food = new int[200];
+        for (int i = 0; i < food.length; i++) {
+            food[i] = random.nextInt(width * height);
+        }
+        Arrays.sort(food);
+        snapshot.apply(new VersionDelta(1, 1000, width, body, new int[0], new int[0]));
+        snapshot.apply(new VersionDelta(2, 2000, width, new int[0], food, new int[]{body[0]}));
+
+        ByteBuf buf = Unpooled.wrappedBuffer(snapshot.getBinaryFrame());
+        MapSnapshot decoded = MapSnapshot.readBinary(buf);
+        assertEquals(2, decoded.getVersion());
+        assertEquals(2000, decoded.getTime());
+        assertEquals(height, decoded.getHeight());
+        for (int i = 0; i < width * height; i++) {
+            assertEquals(snapshot.getCell(i), decoded.getCell(i));
+        }
+        // 远小于文本全量数据
+        assertTrue(snapshot.getBinaryFrame().length * 10 < snapshot.getTextFrame().length);
+    }
+
+    private int[] readCells(ByteBuf buf) {
+        int[] cells = new int[(int) BinaryProtocol.readVarint(buf)];
+        int cell = 0;
+        for (int i = 0; i < cells.length; i++) {
+            cell += BinaryProtocol.readVarint(buf);
+            cells[i] = cell;
+        }
+        return cells;
+    }
+}
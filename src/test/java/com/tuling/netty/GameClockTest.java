@@ -0,0 +1,93 @@
+package com.tuling.netty;
+
+import com.tuling.netty.snake_game.GameClock;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 固定频率时钟 追赶策略测试
+ * 使用手动推进的时间源并直接执行时钟,周期足够长,调度线程不会在测试中触发时钟
+ */
+public class GameClockTest {
+    // 时钟周期(毫秒)
+    private static final long PERIOD = TimeUnit.HOURS.toMillis(1);
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(PERIOD);
+
+    @Test
+    public void multiStepTest() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ManualTime time = new ManualTime();
+        SlowTick tick = new SlowTick(time);
+        GameClock clock = new GameClock("test", scheduler, PERIOD, GameClock.CatchUp.MULTI_STEP, 5, tick, time);
+        clock.start();
+        time.now = PERIOD_NANOS;
+        // 第一次时钟超出预算 3.5 个周期
+        clock.run();
+        // 落后的时钟合并到一次发送中执行
+        clock.run();
+        time.now = 5 * PERIOD_NANOS;
+        clock.run();
+        clock.stop();
+        scheduler.shutdownNow();
+        assertEquals(1, clock.getOverBudgetCount());
+        assertEquals(3, tick.maxSteps);
+        assertEquals(3, clock.getTickCount());
+        assertEquals(5, clock.getStepCount());
+        assertEquals(0, clock.getSkipCount());
+    }
+
+    @Test
+    public void skipTest() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ManualTime time = new ManualTime();
+        SlowTick tick = new SlowTick(time);
+        GameClock clock = new GameClock("test", scheduler, PERIOD, GameClock.CatchUp.SKIP, 5, tick, time);
+        clock.start();
+        time.now = PERIOD_NANOS;
+        clock.run();
+        // 错过的 2 个时钟被丢弃
+        clock.run();
+        time.now = 5 * PERIOD_NANOS;
+        clock.run();
+        clock.stop();
+        scheduler.shutdownNow();
+        assertEquals(1, clock.getOverBudgetCount());
+        assertEquals(1, tick.maxSteps);
+        assertEquals(2, clock.getSkipCount());
+        assertEquals(clock.getTickCount(), clock.getStepCount());
+    }
+
+    private static class ManualTime implements GameClock.TimeSource {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    // 第一次执行耗时 3.5 个周期
+    private static class SlowTick implements GameClock.Tick {
+        private final ManualTime time;
+        boolean slow = true;
+        int maxSteps;
+
+        SlowTick(ManualTime time) {
+            this.time = time;
+        }
+
+        @Override
+        public void tick(int steps) {
+            maxSteps = Math.max(maxSteps, steps);
+            if (slow) {
+                slow = false;
+                time.now += PERIOD_NANOS * 7 / 2;
+            }
+        }
+    }
+}
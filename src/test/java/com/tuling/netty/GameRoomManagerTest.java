@@ -0,0 +1,54 @@
+package com.tuling.netty;
+
+import com.tuling.netty.snake_game.GameRoom;
+import com.tuling.netty.snake_game.GameRoomManager;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 房间加入与关闭测试
+ */
+public class GameRoomManagerTest {
+
+    @Test
+    public void releaseTest() {
+        GameRoomManager manager = new GameRoomManager(64, 64, 1000, 1);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        GameRoom room = manager.getRoom("a");
+        assertSame(room, manager.getRoom("a"));
+        assertTrue(room.join(channel));
+        // 房间内还有通道时不关闭
+        manager.releaseRoom(room);
+        assertFalse(room.isClosed());
+
+        room.getChannels().remove(channel);
+        manager.releaseRoom(room);
+        assertTrue(room.isClosed());
+        // 关闭后加入失败,重新获取时创建新的房间
+        assertFalse(room.join(channel));
+        GameRoom newRoom = manager.getRoom("a");
+        assertNotSame(room, newRoom);
+        assertTrue(newRoom.join(channel));
+        assertEquals(1, manager.getRooms().size());
+
+        // 默认房间始终保留
+        GameRoom defaultRoom = manager.getDefaultRoom();
+        manager.releaseRoom(defaultRoom);
+        assertFalse(defaultRoom.isClosed());
+        manager.shutdown();
+        channel.finishAndReleaseAll();
+    }
+
+    // 开启压缩的房间随定期统计输出压缩率
+    @Test
+    public void statsTest() {
+        GameRoomManager manager = new GameRoomManager(64, 64, 1000, 1);
+        GameRoom room = manager.getRoom("a");
+        assertTrue(manager.stats().contains("房间:a 压缩率:"));
+        room.setCompression(false);
+        assertEquals("", manager.stats());
+        manager.shutdown();
+    }
+}
@@ -0,0 +1,119 @@
+package com.tuling.netty;
+
+import com.alibaba.fastjson.JSON;
+import com.tuling.netty.snake_game.BinaryProtocol;
+import com.tuling.netty.snake_game.InterestArea;
+import com.tuling.netty.snake_game.MapSnapshot;
+import com.tuling.netty.snake_game.VersionData;
+import com.tuling.netty.snake_game.VersionDelta;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 兴趣区域 区块切分与视野帧测试
+ */
+public class InterestAreaTest {
+
+    @Test
+    public void viewTest() {
+        int width = 400, height = 300;
+        InterestArea area = new InterestArea(width, height, 20, 30);
+        MapSnapshot snapshot = new MapSnapshot(width, height);
+        int near = 100 * width + 100, far = 250 * width + 350;
+        // 版本 1 视野内外各有一节蛇身
+        VersionDelta first = new VersionDelta(1, 1000, width, new int[]{near, far}, new int[0], new int[0]);
+        snapshot.apply(first);
+        // 版本 2 视野内外各投放一个食物
+        VersionDelta second = new VersionDelta(2, 2000, width, new int[0], new int[]{near + 1, far + 1}, new int[0]);
+        snapshot.apply(second);
+
+        InterestArea.Viewport view = area.viewport(near);
+        assertEquals(16, view.getTileCount());
+
+        // 未同步的通道 视野内的区块全部发送快照
+        InterestArea.Slices slices = area.slice(second, snapshot);
+        ByteBuf frame = slices.binaryFrame(ByteBufAllocator.DEFAULT, 0, view, null);
+        assertEquals(BinaryProtocol.TYPE_VIEW, frame.readByte());
+        assertEquals(2, BinaryProtocol.readVarint(frame));
+        List<Integer> cells = new ArrayList<>();
+        int areas = readCells(frame, width, cells);
+        assertEquals(16, areas);
+        assertEquals(2, cells.size());
+        assertTrue(cells.contains(near) && cells.contains(near + 1));
+        frame.release();
+
+        // 已同步的通道 只发送视野内的变更
+        frame = slices.binaryFrame(ByteBufAllocator.DEFAULT, 2, view, view);
+        assertEquals(BinaryProtocol.TYPE_VERSION, frame.readByte());
+        assertEquals(2, BinaryProtocol.readVarint(frame));
+        cells.clear();
+        assertEquals(0, readCells(frame, width, cells));
+        assertArrayEquals(new Object[]{near + 1}, cells.toArray());
+        frame.release();
+
+        ByteBuf text = slices.textFrame(ByteBufAllocator.DEFAULT, 2, view, view);
+        assertTrue(text.toString(CharsetUtil.UTF_8).contains("\"cmdDatas\":[\"101,100\"]"));
+        text.release();
+        // 共享片段组装的全量视野帧与 VersionData 格式一致
+        text = slices.textFrame(ByteBufAllocator.DEFAULT, 0, view, null);
+        String json = text.toString(CharsetUtil.UTF_8);
+        assertTrue(json.startsWith("version\r\n"));
+        VersionData data = JSON.parseObject(json.substring("version\r\n".length()), VersionData.class);
+        assertEquals(2, data.getVersion());
+        assertTrue(data.getFull());
+        assertEquals(data.getCmds().length, data.getCmdDatas().length);
+        List<String> cmds = Arrays.asList(data.getCmds());
+        assertEquals(16, Collections.frequency(cmds, "Area"));
+        assertEquals("100,100", data.getCmdDatas()[cmds.indexOf("Green")]);
+        assertEquals("101,100", data.getCmdDatas()[cmds.indexOf("Yellow")]);
+        text.release();
+        slices.release();
+
+        // 切分结果在下一次广播中复用,上一版本的变更已清空
+        VersionDelta third = new VersionDelta(3, 3000, width, new int[0], new int[0], new int[]{near + 1});
+        snapshot.apply(third);
+        InterestArea.Slices reused = area.slice(third, snapshot);
+        assertSame(slices, reused);
+        text = reused.textFrame(ByteBufAllocator.DEFAULT, 3, view, view);
+        json = text.toString(CharsetUtil.UTF_8);
+        assertTrue(json.contains("\"cmds\":[\"Black\"],\"cmdDatas\":[\"101,100\"]"));
+        assertTrue(json.endsWith(",\"time\":3000,\"version\":3}"));
+        text.release();
+        reused.release();
+    }
+
+    // 读取版本号之后的内容,返回区块快照数
+    private int readCells(ByteBuf buf, int width, List<Integer> cells) {
+        BinaryProtocol.readVarint(buf); // 版本时间
+        assertEquals(width, BinaryProtocol.readVarint(buf));
+        int areas = 0;
+        while (buf.isReadable()) {
+            if (buf.readByte() == BinaryProtocol.OP_AREA) {
+                for (int i = 0; i < 4; i++) {
+                    BinaryProtocol.readVarint(buf);
+                }
+                areas++;
+                continue;
+            }
+            long count = BinaryProtocol.readVarint(buf);
+            int cell = 0;
+            for (long i = 0; i < count; i++) {
+                cell += BinaryProtocol.readVarint(buf);
+                cells.add(cell);
+            }
+        }
+        return areas;
+    }
+}
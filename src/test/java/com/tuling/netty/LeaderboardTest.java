@@ -0,0 +1,57 @@
+package com.tuling.netty;
+
+import com.tuling.netty.snake_game.Leaderboard;
+import com.tuling.netty.snake_game.SnakeEntity;
+import com.tuling.netty.snake_game.SnakeGameEngine;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 积分排行榜 排序与名次测试
+ */
+public class LeaderboardTest {
+
+    @Test
+    public void rankTest() {
+        SnakeGameEngine engine = new SnakeGameEngine(20, 20, 100);
+        Leaderboard leaderboard = new Leaderboard();
+        SnakeEntity[] snakes = new SnakeEntity[5];
+        for (int i = 0; i < snakes.length; i++) {
+            snakes[i] = new SnakeEntity(engine, i, "s" + i, 5, 3, SnakeEntity.Direction.right);
+            leaderboard.add(snakes[i]);
+        }
+        // s3:3 s1:2 s4:2 其余为 0
+        for (int i = 0; i < 3; i++) {
+            leaderboard.addKill(snakes[3]);
+        }
+        leaderboard.addKill(snakes[1]);
+        leaderboard.addKill(snakes[1]);
+        leaderboard.addKill(snakes[4]);
+        leaderboard.addKill(snakes[4]);
+
+        List<SnakeEntity> top = leaderboard.top(3);
+        assertSame(snakes[3], top.get(0));
+        assertSame(snakes[1], top.get(1));
+        assertSame(snakes[4], top.get(2));
+        assertEquals(1, leaderboard.rank(snakes[3]));
+        assertEquals(2, leaderboard.rank(snakes[4]));
+        assertEquals(4, leaderboard.rank(snakes[0]));
+
+        // 击杀数超出初始容量
+        for (int i = 0; i < 200; i++) {
+            leaderboard.addKill(snakes[0]);
+        }
+        assertEquals(1, leaderboard.rank(snakes[0]));
+        assertEquals(2, leaderboard.rank(snakes[3]));
+
+        leaderboard.remove(snakes[0]);
+        assertEquals(4, leaderboard.size());
+        assertEquals(1, leaderboard.rank(snakes[3]));
+        assertEquals(4, leaderboard.rank(snakes[2]));
+        engine.stop();
+    }
+}
@@ -0,0 +1,90 @@
+package com.tuling.netty;
+
+import com.tuling.netty.snake_game.MapGrid;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 地图网格 图层维护测试
+ */
+public class MapGridTest {
+
+    @Test
+    public void ownerTest() {
+        MapGrid grid = new MapGrid(10, 10);
+        int cell = grid.index(3, 4);
+        grid.addSnakeNode(cell, 1);
+        assertEquals(1, grid.getOwner(cell, 0));
+        // 两个角色重叠
+        grid.addSnakeNode(cell, 2);
+        assertEquals(2, grid.getSnakeNodes(cell));
+        assertEquals(1, grid.getOwner(cell, 0));
+        assertEquals(2, grid.getOwner(cell, 1));
+
+        grid.removeSnakeNode(cell, 1);
+        assertEquals(1, grid.getSnakeNodes(cell));
+        assertEquals(2, grid.getOwner(cell, 0));
+
+        // 再次重叠时复用格子的重叠归属表
+        grid.addSnakeNode(cell, 3);
+        grid.addSnakeNode(cell, 4);
+        assertEquals(3, grid.getSnakeNodes(cell));
+        assertEquals(2, grid.getOwner(cell, 0));
+        assertEquals(3, grid.getOwner(cell, 1));
+        assertEquals(4, grid.getOwner(cell, 2));
+        grid.removeSnakeNode(cell, 2);
+        grid.removeSnakeNode(cell, 4);
+        assertEquals(3, grid.getOwner(cell, 0));
+    }
+
+    @Test
+    public void freeCellTest() {
+        MapGrid grid = new MapGrid(4, 4);
+        Random random = new Random();
+        assertEquals(16, grid.getFreeCount());
+        for (int i = 0; i < 16; i++) {
+            int cell = grid.randomFreeCell(random);
+            assertTrue(grid.isEmpty(cell));
+            if (cell % 2 == 0) {
+                grid.addSnakeNode(cell, i);
+            } else {
+                grid.setFood(cell, 1);
+            }
+        }
+        assertEquals(0, grid.getFreeCount());
+        assertEquals(MapGrid.OUTSIDE, grid.randomFreeCell(random));
+
+        // 清除蛇身与食物后重新成为空位
+        grid.removeSnakeNode(0, grid.getOwner(0, 0));
+        grid.setFood(1, 0);
+        assertEquals(2, grid.getFreeCount());
+        int cell = grid.randomFreeCell(random);
+        assertTrue(cell == 0 || cell == 1);
+    }
+
+    // 多个区域时按空格子数在各区域中定位
+    @Test
+    public void regionFreeCellTest() {
+        MapGrid grid = new MapGrid(3, 7, 1);
+        assertEquals(7, grid.getRegionCount());
+        Random random = new Random(3);
+        for (int i = 0; i < 21; i++) {
+            if (i % 4 != 0) {
+                grid.setFood(i, 1);
+            }
+        }
+        assertEquals(6, grid.getFreeCount());
+        boolean[] seen = new boolean[21];
+        for (int i = 0; i < 1000; i++) {
+            int cell = grid.randomFreeCell(random);
+            assertEquals(0, cell % 4);
+            seen[cell] = true;
+        }
+        for (int i = 0; i < 21; i += 4) {
+            assertTrue(seen[i]);
+        }
+    }
+}
@@ -6,7 +6,14 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by Tommy on 2018/1/9.
@@ -34,12 +41,12 @@ public class SnakeGameEngineTest {
     public void controlTest() throws InterruptedException, IOException {
         SnakeGameEngine engine = new SnakeGameEngine(500, 500, 5000);
         engine.start();
-        SnakeEntity snake = engine.newSnake("test1","test1");
+        engine.newSnake("test1","test1");
         engine.setListener(new SnakeGameEngine.SnakeGameListener() {
             @Override
-            public void versionChange(VersionData changeData, VersionData currentData) {
+            public void versionChange(VersionDelta delta) {
                 // 输出变更版本
-                System.out.println("定量版本："+JSON.toJSONString(changeData));
+                System.out.println("定量版本："+JSON.toJSONString(delta.toVersionData()));
             }
 
             @Override
@@ -52,15 +59,250 @@ public class SnakeGameEngineTest {
 
             }
 
+            @Override
+            public void flush() {
+
+            }
+
 
         });
         while (true) {
             byte[] bytes = new byte[1024];
             int size = System.in.read(bytes);
             String cmd = new String(bytes, 0, size).trim();
-            engine.controlSnake(snake.getAccountId(), Integer.parseInt(cmd));
-            System.out.println("全量版本："+JSON.toJSONString(engine.getCurrentMapData(false)));
-            System.out.println("角色信息："+snake.toString());
+            engine.controlSnake("test1", Integer.parseInt(cmd));
+            System.out.println("全量版本："+JSON.toJSONString(engine.getCurrentMapData()));
+            System.out.println("角色信息："+engine.getSnakeByAccountId("test1"));
+        }
+    }
+
+    // 并行构建与单线程构建结果一致
+    @Test
+    public void parallelBuildTest() {
+        SnakeGameEngine serial = new SnakeGameEngine(256, 256, 100);
+        SnakeGameEngine parallel = new SnakeGameEngine(256, 256, 100);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.setParallelPool(pool);
+        serial.setRandom(new Random(7));
+        parallel.setRandom(new Random(7));
+        serial.setFootMaxSize(300);
+        parallel.setFootMaxSize(300);
+        int count = 200;
+        for (int i = 0; i < count; i++) {
+            serial.newSnake("s" + i, "s" + i);
+            parallel.newSnake("s" + i, "s" + i);
+        }
+        Random control = new Random(11);
+        for (int t = 0; t < 300; t++) {
+            for (int i = 0; i < count; i++) {
+                if (control.nextInt(3) == 0) {
+                    int code = 37 + control.nextInt(4);
+                    serial.controlSnake("s" + i, code);
+                    parallel.controlSnake("s" + i, code);
+                }
+                if (t % 20 == 0) {
+                    serial.doResurgence("s" + i);
+                    parallel.doResurgence("s" + i);
+                }
+            }
+            serial.gameTimeStep();
+            parallel.gameTimeStep();
+            assertEquals(serial.getCurrentVersion(), parallel.getCurrentVersion());
+        }
+        assertEquals(pointsToStrng(serial.getAllPoint(), ""), pointsToStrng(parallel.getAllPoint(), ""));
+        int dies = 0;
+        for (int i = 0; i < count; i++) {
+            IntegralInfo a = serial.getIntegralInfoByAccountId("s" + i);
+            IntegralInfo b = parallel.getIntegralInfoByAccountId("s" + i);
+            assertEquals(a.getKillIntegral(), b.getKillIntegral());
+            assertEquals(a.getDieIntegral(), b.getDieIntegral());
+            dies += a.getDieIntegral();
+        }
+        assertTrue(dies > 0);
+        pool.shutdown();
+        serial.stop();
+        parallel.stop();
+    }
+
+    // 重复加入时原角色的蛇身被清除,角色ID被复用
+    @Test
+    public void rejoinTest() {
+        SnakeGameEngine engine = new SnakeGameEngine(64, 64, 100);
+        engine.setFootMaxSize(0);
+        // 出生点位各不相同,角色之间不会相撞
+        engine.setRandom(new Random(7));
+        engine.newSnake("a", "a");
+        engine.newSnake("b", "b");
+        for (int t = 0; t < 3; t++) {
+            engine.gameTimeStep();
+        }
+        for (int i = 0; i < 5; i++) {
+            engine.newSnake("a", "a");
+            engine.gameTimeStep();
+            engine.gameTimeStep();
+        }
+        // 两个角色各 3 个节点
+        assertEquals(6, engine.getAllPoint().size());
+        // 离线角色的ID在清除蛇身后才回收,最多占用 3 个ID
+        assertTrue(engine.getSnakeByAccountId("a").getId() <= 2);
+        assertEquals(1, engine.getSnakeByAccountId("b").getId());
+        engine.stop();
+    }
+
+    @Test
+    public void pipelineBuildTest() throws InterruptedException {
+        SnakeGameEngine direct = new SnakeGameEngine(64, 64, 100);
+        SnakeGameEngine pipeline = new SnakeGameEngine(64, 64, 100);
+        pipeline.enablePipeline(TickPipeline.DEFAULT_RING_SIZE, TickPipeline.waitStrategy("yielding"));
+        direct.setRandom(new Random(7));
+        pipeline.setRandom(new Random(7));
+        final List<String> directVersions = new ArrayList<>();
+        final List<String> pipelineVersions = new ArrayList<>();
+        direct.setListener(new VersionRecorder(directVersions));
+        pipeline.setListener(new VersionRecorder(pipelineVersions));
+        pipeline.getPipeline().start();
+        int count = 50;
+        for (int i = 0; i < count; i++) {
+            direct.newSnake("s" + i, "s" + i);
+            pipeline.newSnake("s" + i, "s" + i);
+        }
+        Random control = new Random(11);
+        for (int t = 0; t < 100; t++) {
+            for (int i = 0; i < count; i++) {
+                if (control.nextInt(3) == 0) {
+                    int code = 37 + control.nextInt(4);
+                    direct.controlSnake("s" + i, code);
+                    pipeline.controlSnake("s" + i, code);
+                }
+            }
+            direct.gameTimeStep();
+            assertTrue(pipeline.getPipeline().publish(pipeline, 1));
+            // 等待广播完成,保证下一批指令进入下一次构建
+            while (pipeline.getPipeline().getBroadcastStats().getCount() < t + 1) {
+                Thread.sleep(1);
+            }
+        }
+        assertEquals(direct.getCurrentVersion(), pipeline.getCurrentVersion());
+        assertEquals(directVersions, pipelineVersions);
+        assertEquals(pointsToStrng(direct.getAllPoint(), ""), pointsToStrng(pipeline.getAllPoint(), ""));
+        // 增量维护的快照与地图一致
+        VersionData full = pipeline.getCurrentMapData();
+        assertEquals(pipeline.getCurrentVersion().longValue(), full.getVersion());
+        int points = 0;
+        for (String data : full.getCmdDatas()) {
+            points += data.split(",").length / 2;
+        }
+        assertEquals(pipeline.getAllPoint().size(), points);
+        direct.stop();
+        pipeline.stop();
+    }
+
+    // 多个引擎共用一条流水线,各自的构建结果与直接模式一致
+    @Test
+    public void sharedPipelineTest() throws InterruptedException {
+        TickPipeline shared = new TickPipeline(64, TickPipeline.waitStrategy("yielding"));
+        shared.start();
+        SnakeGameEngine[] direct = new SnakeGameEngine[2];
+        SnakeGameEngine[] pipelined = new SnakeGameEngine[2];
+        List<List<String>> directVersions = new ArrayList<>();
+        List<List<String>> pipelineVersions = new ArrayList<>();
+        for (int e = 0; e < 2; e++) {
+            direct[e] = new SnakeGameEngine(32, 32, 100);
+            pipelined[e] = new SnakeGameEngine(32, 32, 100);
+            pipelined[e].setPipeline(shared);
+            direct[e].setRandom(new Random(e));
+            pipelined[e].setRandom(new Random(e));
+            directVersions.add(new ArrayList<String>());
+            pipelineVersions.add(new ArrayList<String>());
+            direct[e].setListener(new VersionRecorder(directVersions.get(e)));
+            pipelined[e].setListener(new VersionRecorder(pipelineVersions.get(e)));
+            for (int i = 0; i < 5; i++) {
+                direct[e].newSnake("s" + i, "s" + i);
+                pipelined[e].newSnake("s" + i, "s" + i);
+            }
+        }
+        for (int t = 0; t < 20; t++) {
+            for (int e = 0; e < 2; e++) {
+                direct[e].gameTimeStep();
+                assertTrue(shared.publish(pipelined[e], 1));
+            }
+        }
+        while (shared.getBroadcastStats().getCount() < 40) {
+            Thread.sleep(1);
+        }
+        for (int e = 0; e < 2; e++) {
+            assertEquals(direct[e].getCurrentVersion(), pipelined[e].getCurrentVersion());
+            assertEquals(directVersions.get(e), pipelineVersions.get(e));
+            direct[e].stop();
+            pipelined[e].stop();
+        }
+        shared.shutdown();
+    }
+
+    // 停滞的引擎只丢弃自己的时钟,不会占满共用的槽位
+    @Test
+    public void stalledEngineTest() throws InterruptedException {
+        TickPipeline shared = new TickPipeline(8, 2, TickPipeline.waitStrategy("blocking"));
+        shared.start();
+        final CountDownLatch stall = new CountDownLatch(1);
+        SnakeGameEngine slow = new SnakeGameEngine(32, 32, 100);
+        SnakeGameEngine other = new SnakeGameEngine(32, 32, 100);
+        slow.setPipeline(shared);
+        other.setPipeline(shared);
+        slow.setListener(new VersionRecorder(new ArrayList<String>()) {
+            @Override
+            public void flush() {
+                try {
+                    stall.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        other.setListener(new VersionRecorder(new ArrayList<String>()));
+        int published = 0;
+        for (int i = 0; i < 5; i++) {
+            if (shared.publish(slow, 1)) {
+                published++;
+            }
+        }
+        assertEquals(2, published);
+        assertTrue(shared.publish(other, 1));
+        assertTrue(shared.publish(other, 1));
+        assertEquals(3, shared.getOverruns());
+        stall.countDown();
+        while (shared.getBroadcastStats().getCount() < 4) {
+            Thread.sleep(1);
+        }
+        assertTrue(shared.publish(slow, 1));
+        shared.shutdown();
+    }
+
+    // 记录版本变更中的作画指令
+    private static class VersionRecorder implements SnakeGameEngine.SnakeGameListener {
+        private final List<String> versions;
+
+        VersionRecorder(List<String> versions) {
+            this.versions = versions;
+        }
+
+        @Override
+        public void versionChange(VersionDelta delta) {
+            VersionData changeData = delta.toVersionData();
+            versions.add(changeData.getVersion() + Arrays.toString(changeData.getCmds())
+                    + Arrays.toString(changeData.getCmdDatas()));
+        }
+
+        @Override
+        public void statusChange(GameStatistics statistics) {
+        }
+
+        @Override
+        public void noticeEvent(GameEvent[] events) {
+        }
+
+        @Override
+        public void flush() {
         }
     }
 
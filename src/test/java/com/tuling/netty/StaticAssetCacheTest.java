@@ -0,0 +1,87 @@
+package com.tuling.netty;
+
+import com.tuling.netty.common.StaticAssetCache;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 静态资源缓存 ETag 与 gzip 测试
+ */
+public class StaticAssetCacheTest {
+    private final StaticAssetCache cache = new StaticAssetCache(0);
+
+    @After
+    public void clear() {
+        cache.clear();
+    }
+
+    @Test
+    public void sendTest() throws Exception {
+        StaticAssetCache.Asset asset = cache.get("SnakeGamePage.html");
+        assertNotNull(asset);
+        assertTrue(asset.getGzipSize() > 0 && asset.getGzipSize() < asset.getSize());
+
+        FullHttpResponse response = request(null, null);
+        assertEquals(HttpResponseStatus.OK, response.status());
+        assertEquals(asset.getEtag(), response.headers().get(HttpHeaderNames.ETAG));
+        assertEquals(asset.getSize(), response.content().readableBytes());
+        response.release();
+
+        // 接受 gzip 时发送压缩内容,解压后与原文一致
+        response = request("gzip, deflate", null);
+        assertEquals("gzip", response.headers().get(HttpHeaderNames.CONTENT_ENCODING));
+        assertEquals(asset.getGzipSize(), response.content().readableBytes());
+        int size = 0;
+        try (InputStream in = new GZIPInputStream(new ByteBufInputStream(response.content(), true))) {
+            while (in.read() != -1) {
+                size++;
+            }
+        }
+        assertEquals(asset.getSize(), size);
+
+        response = request("gzip", asset.getEtag());
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, response.status());
+        assertEquals(0, response.content().readableBytes());
+        response.release();
+
+        assertTrue(cache.get("SnakeGamePage.html") == asset);
+    }
+
+    private FullHttpResponse request(String acceptEncoding, String ifNoneMatch) {
+        EmbeddedChannel channel = new EmbeddedChannel(new SimpleChannelInboundHandler<FullHttpRequest>() {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+                cache.send(ctx, request, "SnakeGamePage.html");
+            }
+        });
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+        if (acceptEncoding != null) {
+            request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, acceptEncoding);
+        }
+        if (ifNoneMatch != null) {
+            request.headers().set(HttpHeaderNames.IF_NONE_MATCH, ifNoneMatch);
+        }
+        channel.writeInbound(request);
+        FullHttpResponse response = channel.readOutbound();
+        channel.finish();
+        return response;
+    }
+}
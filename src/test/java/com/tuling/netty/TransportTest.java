@@ -0,0 +1,56 @@
+package com.tuling.netty;
+
+import com.tuling.netty.common.Transport;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 传输层 多监听绑定测试
+ */
+public class TransportTest {
+
+    @Test
+    public void bindTest() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Transport transport = Transport.create("test", 2, 1);
+        try {
+            ServerBootstrap b = transport.serverBootstrap(128);
+            b.childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelActive(ChannelHandlerContext ctx) {
+                            ctx.writeAndFlush(ctx.alloc().buffer(1).writeByte(1));
+                        }
+                    });
+                }
+            });
+            ChannelGroup acceptors = transport.bind(b, port);
+            // epoll 下每个监听线程绑定一个监听通道
+            assertEquals(transport.isEpoll() ? 2 : 1, acceptors.size());
+            for (int i = 0; i < 4; i++) {
+                try (Socket client = new Socket("127.0.0.1", port)) {
+                    client.setSoTimeout(5000);
+                    assertEquals(1, client.getInputStream().read());
+                }
+            }
+            acceptors.close().sync();
+        } finally {
+            transport.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.tuling.netty;
+
+import com.tuling.netty.snake_game.VersionDelta;
+import com.tuling.netty.snake_game.VersionHistory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 版本历史 查找与区间合并测试
+ */
+public class VersionHistoryTest {
+
+    @Test
+    public void mergeTest() {
+        VersionHistory history = new VersionHistory(4);
+        int[] none = new int[0];
+        // 蛇从 1 移动到 3,食物 7 被吃掉后在 9 重新投放
+        history.add(new VersionDelta(1, 100, 10, new int[]{1, 2}, new int[]{7}, none));
+        history.add(new VersionDelta(2, 200, 10, new int[]{3}, none, new int[]{1}));
+        history.add(new VersionDelta(3, 300, 10, new int[]{7}, new int[]{9}, new int[]{2}));
+        history.add(new VersionDelta(4, 400, 10, none, none, new int[]{3}));
+
+        VersionDelta merged = history.merge(2, 4);
+        assertTrue(merged.isMerged());
+        assertEquals(2, merged.getFromVersion());
+        assertEquals(4, merged.getVersion());
+        assertEquals(400, merged.getTime());
+        assertArrayEquals(new int[]{7}, merged.getBodyNodes());
+        assertArrayEquals(new int[]{9}, merged.getFoodNodes());
+        assertArrayEquals(new int[]{1, 2, 3}, merged.getClearNodes());
+
+        // 暂存在合并之后已清理,再次合并不受上一次影响
+        merged = history.merge(3, 4);
+        assertArrayEquals(new int[]{7}, merged.getBodyNodes());
+        assertArrayEquals(new int[]{9}, merged.getFoodNodes());
+        assertArrayEquals(new int[]{2, 3}, merged.getClearNodes());
+
+        // 版本 1 被版本 5 覆盖
+        history.add(new VersionDelta(5, 500, 10, none, none, none));
+        assertNull(history.get(1));
+        assertNull(history.merge(1, 5));
+        assertSame(history.get(5), history.merge(5, 5));
+        assertNull(history.get(6));
+    }
+}
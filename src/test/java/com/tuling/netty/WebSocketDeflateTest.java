@@ -0,0 +1,53 @@
+package com.tuling.netty;
+
+import com.tuling.netty.common.WebSocketDeflate;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WebSocket 压缩 消息独立压缩测试
+ */
+public class WebSocketDeflateTest {
+
+    @Test
+    public void deflateTest() throws Exception {
+        StringBuilder text = new StringBuilder("version\r\n{\"cmdDatas\":[\"");
+        for (int i = 0; i < 500; i++) {
+            text.append(i % 60).append(',').append(i / 60).append(',');
+        }
+        text.append("\"],\"cmds\":[\"Green\"],\"full\":false,\"time\":1516000000000,\"version\":100}");
+        ByteBuf content = Unpooled.copiedBuffer(text, CharsetUtil.UTF_8);
+        ByteBuf first = WebSocketDeflate.deflate(ByteBufAllocator.DEFAULT, content);
+        ByteBuf second = WebSocketDeflate.deflate(ByteBufAllocator.DEFAULT, content);
+        // 不保留上下文 同一消息每次压缩结果相同,可以共享
+        assertTrue(ByteBufUtil.equals(first, second));
+        assertTrue(first.readableBytes() * 2 < content.readableBytes());
+        assertEquals(text.toString(), inflate(first));
+        content.release();
+        first.release();
+        second.release();
+    }
+
+    // 按 permessage-deflate 解压:补上 00 00 ff ff 后解压
+    private String inflate(ByteBuf compressed) throws Exception {
+        byte[] input = new byte[compressed.readableBytes() + 4];
+        compressed.getBytes(compressed.readerIndex(), input, 0, compressed.readableBytes());
+        input[input.length - 2] = (byte) 0xff;
+        input[input.length - 1] = (byte) 0xff;
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(input);
+        byte[] out = new byte[64 * 1024];
+        int n = inflater.inflate(out);
+        inflater.end();
+        return new String(out, 0, n, CharsetUtil.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通道版本同步状态 确认、补发与历史覆盖测试
+ */
+public class ChannelSyncStateTest {
+
+    @Test
+    public void deliveredTest() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ChannelSyncState sync = new ChannelSyncState();
+        ChannelPromise ok = channel.newPromise();
+        ok.addListener(sync.sent(1));
+        ok.setSuccess();
+        assertEquals(1, sync.getSentVersion());
+        assertEquals(1, sync.getDeliveredVersion());
+
+        // 写入失败 从已送达的版本之后补发
+        ChannelPromise failed = channel.newPromise();
+        failed.addListener(sync.sent(2));
+        ChannelPromise later = channel.newPromise();
+        later.addListener(sync.sent(3));
+        assertEquals(3, sync.getSentVersion());
+        failed.setFailure(new Exception("write failed"));
+        assertEquals(1, sync.getSentVersion());
+        later.setSuccess();
+        assertEquals(3, sync.getDeliveredVersion());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void ackTest() {
+        ChannelSyncState sync = new ChannelSyncState();
+        sync.sent(10);
+        // 未确认过时不触发
+        assertFalse(sync.checkAck(4));
+        sync.ack(5);
+        sync.ack(3);
+        assertEquals(5, sync.getAckedVersion());
+        assertFalse(sync.checkAck(5));
+        sync.sent(11);
+        assertTrue(sync.checkAck(5));
+        assertEquals(5, sync.getSentVersion());
+        // 补发后需再落后 maxLag 个版本才会再次触发
+        sync.sent(12);
+        assertFalse(sync.checkAck(5));
+        sync.sent(17);
+        assertTrue(sync.checkAck(5));
+        assertEquals(5, sync.getSentVersion());
+    }
+
+    // 确认落后刚超过上限时,需补发的区间仍在历史中,不退回全量
+    @Test
+    public void evictionTest() {
+        int capacity = 64;
+        int maxLag = ChannelSyncState.maxAckLag(capacity);
+        assertTrue(maxLag + 1 < capacity);
+        VersionHistory history = new VersionHistory(capacity);
+        int[] none = new int[0];
+        ChannelSyncState sync = new ChannelSyncState();
+        sync.ack(1);
+        long version = 1;
+        boolean resynced = false;
+        for (; version <= 200 && !resynced; version++) {
+            history.add(new VersionDelta(version, version, 10, new int[]{(int) version}, none, none));
+            sync.sent(version);
+            resynced = sync.checkAck(maxLag);
+        }
+        assertTrue(resynced);
+        // 下一次广播 从确认的版本之后合并到新版本
+        history.add(new VersionDelta(version, version, 10, none, none, none));
+        assertNotNull(history.merge(sync.getSentVersion() + 1, version));
+
+        // 落后超过历史容量时 合并失败,退回全量
+        assertNull(history.merge(sync.getSentVersion() + 1, version + capacity));
+    }
+}
@@ -0,0 +1,122 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文本指令解码 指令名、数字与区间分隔符测试
+ */
+public class CommandDecoderTest {
+
+    private static ByteBuf ascii(String text) {
+        return Unpooled.copiedBuffer(text, CharsetUtil.US_ASCII);
+    }
+
+    private static int command(String name) {
+        ByteBuf buf = ascii(name);
+        return CommandDecoder.command(buf, 0, buf.writerIndex());
+    }
+
+    private static long parseLong(String text) {
+        ByteBuf buf = ascii(text);
+        return CommandDecoder.parseLong(buf, 0, buf.writerIndex());
+    }
+
+    @Test
+    public void commandTest() {
+        assertEquals(CommandDecoder.JOIN, command("JOIN"));
+        assertEquals(CommandDecoder.CONTROL, command("CONTROL"));
+        assertEquals(CommandDecoder.FULL, command("FULL"));
+        assertEquals(CommandDecoder.RANGE, command("RANGE"));
+        assertEquals(CommandDecoder.QUANTITATIVE, command("QUANTITATIVE"));
+        assertEquals(CommandDecoder.ACK, command("ACK"));
+        assertEquals(CommandDecoder.RESURGENCE, command("RESURGENCE"));
+        // 首字节相同但名称不完整或多出字符
+        assertEquals(CommandDecoder.UNKNOWN, command("RANG"));
+        assertEquals(CommandDecoder.UNKNOWN, command("JOINS"));
+        assertEquals(CommandDecoder.UNKNOWN, command("ack"));
+        assertEquals(CommandDecoder.UNKNOWN, command("X"));
+        assertEquals(CommandDecoder.UNKNOWN, command(""));
+    }
+
+    @Test
+    public void trimTest() {
+        ByteBuf buf = ascii(" \t ACK:5 \r\n");
+        int start = CommandDecoder.trimStart(buf, 0, buf.writerIndex());
+        int end = CommandDecoder.trimEnd(buf, start, buf.writerIndex());
+        assertEquals("ACK:5", buf.toString(start, end - start, CharsetUtil.US_ASCII));
+        int split = buf.indexOf(start, end, (byte) ':');
+        assertEquals(CommandDecoder.ACK, CommandDecoder.command(buf, start, split));
+        assertEquals(5, CommandDecoder.parseLong(buf, split + 1, end));
+
+        // 全是空白时为空区间
+        buf = ascii(" \r\n");
+        start = CommandDecoder.trimStart(buf, 0, buf.writerIndex());
+        assertEquals(start, CommandDecoder.trimEnd(buf, start, buf.writerIndex()));
+    }
+
+    @Test
+    public void numberTest() {
+        assertEquals(0, parseLong("0"));
+        assertEquals(999999999999999999L, parseLong("999999999999999999"));
+        ByteBuf buf = ascii("2147483647");
+        assertEquals(Integer.MAX_VALUE, CommandDecoder.parseInt(buf, 0, buf.writerIndex()));
+        assertInvalid("");
+        // 超过 18 位
+        assertInvalid("1000000000000000000");
+        assertInvalid("-5");
+        assertInvalid("12a");
+        try {
+            buf = ascii("2147483648");
+            CommandDecoder.parseInt(buf, 0, buf.writerIndex());
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    @Test
+    public void rangeTest() {
+        ByteBuf buf = ascii("3..10");
+        int dots = CommandDecoder.rangeSeparator(buf, 0, buf.writerIndex());
+        assertEquals(1, dots);
+        assertEquals(3, CommandDecoder.parseLong(buf, 0, dots));
+        assertEquals(10, CommandDecoder.parseLong(buf, dots + 2, buf.writerIndex()));
+
+        // 省略结束版本
+        buf = ascii("12..");
+        dots = CommandDecoder.rangeSeparator(buf, 0, buf.writerIndex());
+        assertEquals(2, dots);
+        assertEquals(12, CommandDecoder.parseLong(buf, 0, dots));
+        assertEquals(buf.writerIndex(), dots + 2);
+
+        // 没有分隔符
+        buf = ascii("12");
+        assertEquals(2, CommandDecoder.rangeSeparator(buf, 0, buf.writerIndex()));
+
+        // 单个 '.'
+        assertInvalidRange("12.5");
+        assertInvalidRange("12.");
+        assertInvalidRange(".");
+    }
+
+    private static void assertInvalid(String text) {
+        try {
+            parseLong(text);
+            fail(text);
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    private static void assertInvalidRange(String text) {
+        ByteBuf buf = ascii(text);
+        try {
+            CommandDecoder.rangeSeparator(buf, 0, buf.writerIndex());
+            fail(text);
+        } catch (NumberFormatException expected) {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.tuling.netty.snake_game;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 慢消费者策略 不可写、恢复后重新同步与超时断开测试
+ */
+public class SlowConsumerPolicyTest {
+
+    // 出站缓冲超过高水位且未刷新的通道
+    private EmbeddedChannel stalledChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(8, 16));
+        channel.write(Unpooled.buffer().writeZero(32));
+        assertFalse(channel.isWritable());
+        return channel;
+    }
+
+    @Test
+    public void coalesceTest() {
+        SlowConsumerPolicy policy = new SlowConsumerPolicy(SlowConsumerPolicy.Mode.COALESCE, 1000);
+        EmbeddedChannel channel = stalledChannel();
+        ChannelSyncState sync = new ChannelSyncState();
+        sync.sent(5);
+        assertFalse(policy.check(channel, sync, 100));
+        assertFalse(policy.check(channel, sync, 500));
+        // 恢复可写 保留已发送版本,下一次广播补发合并的变更
+        channel.flushOutbound();
+        assertTrue(channel.isWritable());
+        assertTrue(policy.check(channel, sync, 600));
+        assertEquals(5, sync.getSentVersion());
+        assertTrue(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void dropTest() {
+        SlowConsumerPolicy policy = new SlowConsumerPolicy(SlowConsumerPolicy.Mode.DROP, 1000);
+        EmbeddedChannel channel = stalledChannel();
+        ChannelSyncState sync = new ChannelSyncState();
+        sync.sent(5);
+        assertFalse(policy.check(channel, sync, 100));
+        // 恢复可写 期间的变更已丢弃,重新发送全量
+        channel.flushOutbound();
+        assertTrue(policy.check(channel, sync, 200));
+        assertEquals(0, sync.getSentVersion());
+        // 未曾不可写时不重新同步
+        sync.sent(6);
+        assertTrue(policy.check(channel, sync, 300));
+        assertEquals(6, sync.getSentVersion());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void timeoutTest() {
+        SlowConsumerPolicy policy = new SlowConsumerPolicy(SlowConsumerPolicy.Mode.COALESCE, 1000);
+        EmbeddedChannel channel = stalledChannel();
+        ChannelSyncState sync = new ChannelSyncState();
+        assertFalse(policy.check(channel, sync, 100));
+        assertFalse(policy.check(channel, sync, 1100));
+        assertTrue(channel.isOpen());
+        // 持续不可写超过超时时间 断开连接
+        assertFalse(policy.check(channel, sync, 1101));
+        assertFalse(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    // 不可写期间的定向事件暂存,恢复可写后按顺序取出
+    @Test
+    public void pendingEventTest() {
+        ChannelSyncState sync = new ChannelSyncState();
+        assertNull(sync.drainEvents());
+        for (int i = 0; i < ChannelSyncState.MAX_PENDING_EVENTS + 2; i++) {
+            sync.queueEvent(new GameEvent(GameEvent.EventType.die, "event" + i));
+        }
+        GameEvent[] events = sync.drainEvents();
+        assertEquals(ChannelSyncState.MAX_PENDING_EVENTS, events.length);
+        assertEquals("event2", events[0].getMessage());
+        assertNull(sync.drainEvents());
+    }
+}